@@ -0,0 +1,152 @@
+package name.kazennikov.glorie;
+
+import com.google.common.io.Files;
+import gate.Document;
+import gate.Factory;
+import gate.Gate;
+import name.kazennikov.glorie.gen.GrammarGenerator;
+import name.kazennikov.glorie.gen.Lattice;
+import name.kazennikov.glorie.gen.LatticeGenerator;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Grammars and input lattices for the benchmarks.
+ *
+ * Inputs are lattices of {@link LatticeGenerator}: Token spans with 'kind' and 'length' features.
+ * Each word starts 'ambiguity' spans that cover one or two words, so the parser sees overlapping paths.
+ */
+public class BenchmarkSupport {
+    public static final int KINDS = 8;
+    static boolean gateInitialized;
+
+    public static synchronized void initGate() throws Exception {
+        if(gateInitialized)
+            return;
+
+        Gate.runInSandbox(true);
+        Gate.init();
+        gateInitialized = true;
+    }
+
+    /**
+     * Generated grammar of given number of productions, with attribute actions,
+     * so the Groovy compiler is involved
+     */
+    public static String generatedGrammar(int productions) {
+        GrammarGenerator g = new GrammarGenerator(42);
+        g.setRules(productions);
+        g.setKinds(KINDS);
+        return g.generate();
+    }
+
+    /**
+     * Ambiguous grammar: a sequence of items, each item is a token or a pair of items
+     */
+    public static String ambiguousGrammar() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Grammar: Ambiguous\n");
+        sb.append("Input: Token\n");
+        sb.append("Start: S\n\n");
+        sb.append("S -> Item Item Item\n");
+        sb.append("Item -> Item Item\n");
+        sb.append("Item -> [Token: kind == k0] | [Token: kind == k1] | [Token: length > 1]\n");
+
+        for(int i = 2; i < KINDS; i++) {
+            sb.append("Item -> [Token: kind == k").append(i).append("]\n");
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Grammar with a production for each predicate family over the same input
+     */
+    public static String predicateGrammar() {
+        return "Grammar: Predicates\n"
+                + "Input: Token\n"
+                + "Start: S\n\n"
+                + "S -> Eq | EqCI | Regex | Greater | In | Not\n"
+                + "Eq -> [Token: kind == k1]\n"
+                + "EqCI -> [Token: kind ==* K2]\n"
+                + "Regex -> [Token: kind =~ \"k[3-5]\"]\n"
+                + "Greater -> [Token: length > 1]\n"
+                + "In -> [Token: kind in \"k4|k5|k6\"]\n"
+                + "Not -> [Token: !kind == k7]\n";
+    }
+
+    /**
+     * Write grammar source to a temp file. The caller deletes the file
+     */
+    public static File grammarFile(String source) throws Exception {
+        File f = File.createTempFile("bench", ".glr");
+        Files.write(source, f, Charset.forName("UTF-8"));
+        return f;
+    }
+
+    /**
+     * Compile grammar source, without the GLR table
+     */
+    public static CompiledGrammar compileGrammar(String source) throws Exception {
+        initGate();
+        File f = grammarFile(source);
+
+        try {
+            return new GrammarCompiler(f).compile();
+        } finally {
+            f.delete();
+        }
+    }
+
+    /**
+     * Compile grammar source
+     * @return initialized analyser, the compiled grammar, table and parser are in its fields
+     */
+    public static GLRAnalyser compile(String source) throws Exception {
+        initGate();
+        File f = grammarFile(source);
+
+        try {
+            GLRAnalyser analyser = new GLRAnalyser();
+            analyser.grammarFile = f;
+            analyser.init();
+            return analyser;
+        } finally {
+            f.delete();
+        }
+    }
+
+    /**
+     * Input of a parser: document and sorted spans
+     */
+    public static class Input {
+        public final Document doc;
+        public final List<SymbolSpan> spans;
+
+        public Input(Document doc, List<SymbolSpan> spans) {
+            this.doc = doc;
+            this.spans = spans;
+        }
+    }
+
+    /**
+     * Generate input lattice
+     * @param grammar target grammar
+     * @param words number of words
+     * @param ambiguity spans per word
+     * @param seed random seed
+     */
+    public static Input lattice(CompiledGrammar grammar, int words, int ambiguity, long seed) throws Exception {
+        initGate();
+        LatticeGenerator g = new LatticeGenerator(seed);
+        g.setWords(words);
+        g.setAmbiguity(ambiguity);
+        g.setMaxSpanLength(2);
+        g.setKinds(KINDS);
+
+        Lattice lattice = g.generate("bench");
+        return new Input(Factory.newDocument(lattice.getText().toString()), lattice.spans(grammar));
+    }
+}
@@ -0,0 +1,42 @@
+package name.kazennikov.glorie;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CompiledGrammar construction from source, including Groovy compilation of the reduce actions.
+ * The grammar file is written once per trial, the GLR table isn't built
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GrammarCompileBenchmark {
+
+    @Param({"100", "1000"})
+    int productions;
+
+    String source;
+    File grammarFile;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        BenchmarkSupport.initGate();
+        source = BenchmarkSupport.generatedGrammar(productions);
+        grammarFile = BenchmarkSupport.grammarFile(source);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        grammarFile.delete();
+    }
+
+    @Benchmark
+    public CompiledGrammar compile() throws Exception {
+        return new GrammarCompiler(grammarFile).compile(source);
+    }
+}
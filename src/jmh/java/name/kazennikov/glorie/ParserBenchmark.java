@@ -0,0 +1,45 @@
+package name.kazennikov.glorie;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * GLRParser.parse() on synthetic lattices of varying ambiguity
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"1", "2", "4"})
+    int ambiguity;
+
+    @Param({"200"})
+    int words;
+
+    GLRAnalyser analyser;
+    BenchmarkSupport.Input lattice;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        analyser = BenchmarkSupport.compile(BenchmarkSupport.ambiguousGrammar());
+        lattice = BenchmarkSupport.lattice(analyser.grammar, words, ambiguity, 42);
+    }
+
+    @Benchmark
+    public int parse() {
+        GLRParser parser = analyser.parser;
+
+        try {
+            parser.init(lattice.doc, lattice.spans);
+            parser.parse();
+            return parser.roots.size();
+        } finally {
+            parser.clear();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package name.kazennikov.glorie;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SymbolSpanPredicateEvaluator.eval() for each predicate family over all input spans.
+ * The evaluator cache is reset before each pass, so the predicates are actually evaluated
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PredicateBenchmark {
+
+    @Param({"eq", "eqci", "regex", "greater", "in", "not"})
+    String family;
+
+    int predId;
+    InputData input;
+    SymbolSpanPredicateEvaluator eval;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        CompiledGrammar grammar = BenchmarkSupport.compileGrammar(BenchmarkSupport.predicateGrammar());
+        BenchmarkSupport.Input lattice = BenchmarkSupport.lattice(grammar, 1000, 2, 42);
+        input = new InputData(lattice.doc, lattice.spans);
+        eval = new SymbolSpanPredicateEvaluator(grammar, input);
+        predId = find(grammar.predicates, familyClass(family));
+    }
+
+    static Class<?> familyClass(String family) {
+        switch(family) {
+            case "eq":
+                return SymbolSpanPredicates.Equal.class;
+            case "eqci":
+                return SymbolSpanPredicates.EqualIgnoreCase.class;
+            case "regex":
+                return SymbolSpanPredicates.RegexPredicate.class;
+            case "greater":
+                return SymbolSpanPredicates.GreaterPredicate.class;
+            case "in":
+                return SymbolSpanPredicates.InPredicate.class;
+            case "not":
+                return SymbolSpanPredicates.NotPredicate.class;
+            default:
+                throw new IllegalArgumentException("Unknown predicate family: " + family);
+        }
+    }
+
+    static int find(List<SymbolSpanPredicate> predicates, Class<?> c) {
+        for(int i = 0; i < predicates.size(); i++) {
+            if(c.isInstance(predicates.get(i)))
+                return i;
+        }
+
+        throw new IllegalStateException("No predicate of " + c.getSimpleName() + " in the grammar");
+    }
+
+    @Benchmark
+    public int eval() {
+        eval.reset(input);
+        int count = 0;
+
+        for(int i = 0; i < input.size(); i++) {
+            if(eval.eval(predId, input.get(i))) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+}
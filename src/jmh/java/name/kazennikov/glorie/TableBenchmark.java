@@ -0,0 +1,41 @@
+package name.kazennikov.glorie;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LR(0) items and GLR table construction on grammars of growing size
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TableBenchmark {
+
+    @Param({"100", "1000", "3000"})
+    int productions;
+
+    CompiledGrammar grammar;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        grammar = BenchmarkSupport.compileGrammar(BenchmarkSupport.generatedGrammar(productions));
+    }
+
+    @Benchmark
+    public LRItems lrItems() {
+        LRItems items = new LRItems(grammar);
+        items.compute();
+        return items;
+    }
+
+    @Benchmark
+    public GLRTable buildGLRTable() {
+        GLRTable table = new GLRTable(grammar);
+        table.buildGLRTable();
+        return table;
+    }
+}
@@ -38,6 +38,13 @@ public class CompiledGrammar {
         int[] rhs;
 		int reductionPathSize;
 
+		// binarized productions (BRNGLR mode)
+		Rule base;              // first rule that created an intermediate rule, null for other rules
+		int prefix;             // number of RHS symbols covered by the intermediate rule
+		int leftPred = -1;      // predicate of the left RHS symbol of an intermediate rule, -1 for an intermediate symbol
+		int rightPred = -1;     // predicate of the right RHS symbol of an intermediate rule
+		boolean binarized;      // true, if the RHS of this rule is binarized to [intermediate, last symbol]
+
         public Rule(Production production, int id, int lhs, int[] rhs) {
             this.production = production;
             this.id = id;
@@ -49,6 +56,13 @@ public class CompiledGrammar {
         public boolean synth() {
             return production.synth;
         }
+
+		/**
+		 * Checks if the rule is an intermediate rule of a binarized production
+		 */
+		public boolean intermediate() {
+			return base != null;
+		}
     }
 
 
@@ -87,6 +101,14 @@ public class CompiledGrammar {
     List<List<Symbol>> prefixes;
     List<SymbolSpanPredicate> predicates;
     WalkFSABoolean prefixFSA;
+    int prefixLength;
+    int prefixFSASize;  // number of states of the last built prefix FSA
+
+    // auto prefix length: prefixFSAs[k] - prefix FSA of length k, null if it's not built
+    WalkFSABoolean[] prefixFSAs;
+    public static final int MAX_AUTO_PREFIX_LENGTH = 5;
+    public static final int MAX_AUTO_PREFIX_STATES = 100000;
+    public static final long MAX_AUTO_PREFIX_BUILD_TIME = 2000; // ms
 
     // predicate FSA
     Alphabet<FeatureAccessor> accessors = new Alphabet<>();
@@ -95,6 +117,9 @@ public class CompiledGrammar {
 
     List<GreedyPolicy> policies = new ArrayList<>();
 
+    // intermediate symbols of binarized rules
+    TIntHashSet intermediates = new TIntHashSet();
+
     Object grammarCode;
 
 
@@ -106,6 +131,10 @@ public class CompiledGrammar {
         return symbols.get(symbolId).nt;
     }
 
+    public boolean isIntermediate(int symbolId) {
+        return intermediates.contains(symbolId);
+    }
+
     public boolean isEOF(int symbolId) {
         return symbols.get(symbolId) == Symbol.EOF;
     }
@@ -208,6 +237,11 @@ public class CompiledGrammar {
         compilePostScript();
         compileReduceActions();
         compileInterp();
+
+        if(grammar.binarize) {
+            binarize();
+        }
+
         buildPrefixTrie();
         optimizeSynth();
 
@@ -225,11 +259,115 @@ public class CompiledGrammar {
     }
 
     /**
-     * Build grammar prefix trie
+     * Binarize rules with RHS longer than 2 symbols (BRNGLR engine mode).
+     *
+     * A rule A -> X1 X2 ... Xn is split to left-branching intermediate rules:
+     * I2 -> X1 X2, I3 -> I2 X3, ..., and the rule RHS is replaced by [I(n-1), Xn].
+     * So every GLR reduction walks a GSS path of at most two symbols. The rule keeps its
+     * id and production, so reduce actions and interp actions are unchanged. The parser expands
+     * the intermediate symbol nodes back to the full RHS on reduction of the rule.
+     *
+     * Intermediate symbols are keyed by the RHS prefix: the symbols and their predicates.
+     * So rules with equal RHS prefixes share the intermediate rules and the packed
+     * intermediate symbol nodes.
+     *
+     * As the grammar is epsilon-free, no right-nulled reductions are needed.
+     */
+    public void binarize() {
+        List<Rule> newRules = new ArrayList<>(Arrays.asList(rules));
+        Map<TIntArrayList, Integer> prefixSymbols = new HashMap<>();
+        int count = 0;
+
+        for(Rule r : rules) {
+            if(r.rhs.length <= 2)
+                continue;
+
+            int[] rhs = r.rhs;
+            TIntArrayList predIds = r.production.predIds;
+            int left = rhs[0];
+
+            // prefix key: (symbol, predicate) pairs
+            TIntArrayList key = new TIntArrayList();
+            key.add(rhs[0]);
+            key.add(predIds.get(0));
+
+            for(int prefix = 2; prefix < rhs.length; prefix++) {
+                key.add(rhs[prefix - 1]);
+                key.add(predIds.get(prefix - 1));
+
+                Integer sym = prefixSymbols.get(key);
+
+                if(sym == null) {
+                    Symbol s = new Symbol(String.format("#%d.%d", prefixSymbols.size(), prefix), true);
+                    sym = symbols.get(s);
+                    intermediates.add(sym);
+                    prefixSymbols.put(new TIntArrayList(key), sym);
+
+                    Rule ir = new Rule(r.production, newRules.size(), sym, new int[]{left, rhs[prefix - 1]});
+                    ir.base = r;
+                    ir.prefix = prefix;
+                    ir.leftPred = prefix == 2? predIds.get(0) : -1;
+                    ir.rightPred = predIds.get(prefix - 1);
+                    newRules.add(ir);
+                }
+
+                left = sym;
+            }
+
+            r.rhs = new int[]{left, rhs[rhs.length - 1]};
+            r.reductionPathSize = r.rhs.length * 2 + 1;
+            r.binarized = true;
+            count++;
+        }
+
+        rules = newRules.toArray(new Rule[newRules.size()]);
+
+        // intermediate symbols are never output
+        output = Arrays.copyOf(output, symbols.size());
+        evaluators = Arrays.copyOf(evaluators, symbols.size() + 1);
+
+        logger.info(String.format("Binarized %d rules, %d shared intermediate symbols, %d rules total",
+                count, prefixSymbols.size(), rules.length));
+    }
+
+    /**
+     * Build grammar prefix trie.
+     *
+     * In the auto mode, prefix FSAs are built for increasing lengths until the FSA size or the build time
+     * exceeds the limits. The longest one is used, the parser may select a shorter one on a document sample.
      */
     public void buildPrefixTrie() {
+        if(!grammar.autoPrefix) {
+            prefixFSA = buildPrefixTrie(grammar.prefixLength);
+            prefixLength = grammar.prefixLength;
+            return;
+        }
+
+        prefixFSAs = new WalkFSABoolean[MAX_AUTO_PREFIX_LENGTH + 1];
+
+        for(int k = 1; k <= MAX_AUTO_PREFIX_LENGTH; k++) {
+            long st = System.currentTimeMillis();
+            WalkFSABoolean fsa = buildPrefixTrie(k);
+
+            if(k > 1 && prefixFSASize > MAX_AUTO_PREFIX_STATES)
+                break;
+
+            prefixFSAs[k] = fsa;
+            prefixFSA = fsa;
+            prefixLength = k;
 
-        int prefixLength = 3;
+            if(System.currentTimeMillis() - st > MAX_AUTO_PREFIX_BUILD_TIME)
+                break;
+        }
+
+        logger.info(String.format("Auto prefix length: built prefix FSAs up to length %d", prefixLength));
+    }
+
+    /**
+     * Build grammar prefix trie of given length
+     * @param prefixLength prefix length
+     */
+    public WalkFSABoolean buildPrefixTrie(int prefixLength) {
         BooleanFSABuilder fsaBuilder = new BooleanFSABuilder();
         prefixes = new ArrayList<>();
 		long st = System.currentTimeMillis();
@@ -244,9 +382,11 @@ public class CompiledGrammar {
             prefixes.add(prefix);
         }
 
-        prefixFSA = fsaBuilder.build();
+        WalkFSABoolean fsa = fsaBuilder.build();
+        prefixFSASize = fsaBuilder.size();
         logger.info(String.format("Prefix FSA: %d states for %d prefixes of length %d, built in %d ms",
 				fsaBuilder.size(), prefixes.size(), prefixLength, System.currentTimeMillis() - st));
+        return fsa;
     }
 
 
@@ -357,70 +497,103 @@ public class CompiledGrammar {
 	public TIntObjectHashMap<Set<TIntArrayList>> buildFirstK(int prefixLength) {
 		TIntObjectHashMap<Set<TIntArrayList>> firstKSet = new TIntObjectHashMap<>();
 
+		// dependants[s] - rules with non-terminal s among the first prefixLength RHS symbols
+		TIntObjectHashMap<TIntArrayList> dependants = new TIntObjectHashMap<>();
+
 		for(int i = 0; i < symbols.size(); i++) {
 			firstKSet.put(i, new HashSet<TIntArrayList>());
 		}
 
-		while(true) {
-			boolean changed = false;
+		for(int r = 0; r < rules.length; r++) {
+			Rule p = rules[r];
 
-			for(Rule p : rules) {
-				Set<TIntArrayList> thisRuleResult = new HashSet<>();
-				thisRuleResult.add(new TIntArrayList()); // add empty prefix
+			for(int i = 0; i < Math.min(p.rhs.length, prefixLength); i++) {
+				if(!isNT(p.rhs[i]))
+					continue;
 
-				int min = Math.min(p.rhs.length, prefixLength);
+				TIntArrayList l = dependants.get(p.rhs[i]);
+				if(l == null) {
+					l = new TIntArrayList();
+					dependants.put(p.rhs[i], l);
+				}
 
-				for(int i = 0; i < min; i++ ) {
-					Set<TIntArrayList> additions = new HashSet<>();
-					int s = p.rhs[i];
+				if(l.isEmpty() || l.get(l.size() - 1) != r) {
+					l.add(r);
+				}
+			}
+		}
 
-					if(isNT(s)) {
-						additions.addAll(firstKSet.get(s));
-					} else {
-						additions.add(new TIntArrayList(new int[]{s}));
-					}
+		// worklist of rules, a rule is recomputed only when First_k of its RHS symbols has changed
+		TIntArrayList queue = new TIntArrayList(rules.length);
+		boolean[] queued = new boolean[rules.length];
 
+		for(int r = rules.length - 1; r >= 0; r--) {
+			queue.add(r);
+			queued[r] = true;
+		}
 
+		while(!queue.isEmpty()) {
+			int r = queue.removeAt(queue.size() - 1);
+			queued[r] = false;
+			Rule p = rules[r];
 
-					if(additions.isEmpty()) {
-						thisRuleResult.clear();
-						break;
-					}
+			if(!firstKSet.get(p.lhs).addAll(firstK(p, prefixLength, firstKSet)))
+				continue;
 
+			TIntArrayList l = dependants.get(p.lhs);
+			if(l == null)
+				continue;
 
+			for(int i = 0; i < l.size(); i++) {
+				if(!queued[l.get(i)]) {
+					queue.add(l.get(i));
+					queued[l.get(i)] = true;
+				}
+			}
+		}
 
-					Set<TIntArrayList> newRuleResult = new HashSet<>();
+		return firstKSet;
+	}
+
+	/**
+	 * Compute First_k of the rule RHS from current First_k sets of the RHS symbols
+	 */
+	private Set<TIntArrayList> firstK(Rule p, int prefixLength, TIntObjectHashMap<Set<TIntArrayList>> firstKSet) {
+		Set<TIntArrayList> thisRuleResult = new HashSet<>();
+		thisRuleResult.add(new TIntArrayList()); // add empty prefix
+
+		int min = Math.min(p.rhs.length, prefixLength);
 
-					for(TIntArrayList prefix : thisRuleResult) {
-						if(prefix.size() == prefixLength) {
-							newRuleResult.add(prefix);
-							continue;
-						}
+		for(int i = 0; i < min; i++ ) {
+			int s = p.rhs[i];
+			Set<TIntArrayList> additions = isNT(s)? firstKSet.get(s) : Collections.singleton(new TIntArrayList(new int[]{s}));
 
-						for(TIntArrayList addition : additions) {
-							TIntArrayList updated = new TIntArrayList(prefixLength);
-							updated.addAll(prefix);
-							int addLen = Math.min(addition.size(), prefixLength - prefix.size());
-							updated.addAll(addition.subList(0, addLen));
-							newRuleResult.add(updated);
-						}
-					}
+			if(additions.isEmpty()) {
+				thisRuleResult.clear();
+				break;
+			}
 
-					thisRuleResult = new HashSet<>(newRuleResult);
+			Set<TIntArrayList> newRuleResult = new HashSet<>();
 
+			for(TIntArrayList prefix : thisRuleResult) {
+				if(prefix.size() == prefixLength) {
+					newRuleResult.add(prefix);
+					continue;
 				}
 
-				Set<TIntArrayList> s = firstKSet.get(p.lhs);
-				int initSize = s.size();
-				s.addAll(thisRuleResult);
-				changed = changed || initSize != s.size();
+				for(TIntArrayList addition : additions) {
+					TIntArrayList updated = new TIntArrayList(prefixLength);
+					updated.addAll(prefix);
+					int addLen = Math.min(addition.size(), prefixLength - prefix.size());
+					updated.addAll(addition.subList(0, addLen));
+					newRuleResult.add(updated);
+				}
 			}
 
-			if(!changed)
-				break;
+			thisRuleResult = newRuleResult;
 		}
 
-		return firstKSet;
+		return thisRuleResult;
 	}
 
 
@@ -436,6 +609,15 @@ public class CompiledGrammar {
         return grammar.input.contains(type);
     }
 
+    /**
+     * Get terminal symbol id of an input type
+     * @param type input span type
+     * @return symbol id, or -1 if the type isn't a terminal of the grammar
+     */
+    public int terminal(String type) {
+        return terminals.get(type);
+    }
+
     /**
      * Compile grammar reduce actions
      * @throws Exception
@@ -622,10 +804,13 @@ pre = new PreBaseScript.Simple();
         copy.interpGenerators = interpGenerators;
         copy.prefixes = prefixes;
         copy.prefixFSA = prefixFSA;
+        copy.prefixFSAs = prefixFSAs;
+        copy.prefixLength = prefixLength;
         copy.start = start;
         copy.lrStart = lrStart;
         copy.eof = eof;
         copy.accessors = accessors;
+        copy.intermediates = intermediates;
 
 
         copy.actions = new CompiledReduceAction[actions.length];
@@ -718,7 +903,7 @@ pre = new PreBaseScript.Simple();
     public void computePolicies() {
         TIntHashSet set = new TIntHashSet();
         for(Rule r : rules) {
-            if(r.production.greedy) {
+            if(r.production.greedy && !r.intermediate()) {
                 set.add(r.lhs);
             }
         }
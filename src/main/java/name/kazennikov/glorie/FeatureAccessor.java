@@ -270,11 +270,12 @@ public interface FeatureAccessor {
 
         @Override
         public Object get(SymbolSpanPredicateEvaluator evaluator, SymbolSpan span) {
-            try {
-                return evaluator.input.doc.getContent().getContent((long) span.start, (long) span.end).toString();
-            } catch (Exception e) {
+            String text = evaluator.input.text;
+
+            if(span.start < 0 || span.end > text.length() || span.start > span.end)
                 return "";
-            }
+
+            return text.substring(span.start, span.end);
         }
 
         @Override
@@ -1,6 +1,5 @@
 package name.kazennikov.glorie;
 
-import com.google.common.io.Files;
 import gate.Annotation;
 import gate.AnnotationSet;
 import gate.Factory;
@@ -11,12 +10,9 @@ import gate.creole.ExecutionException;
 import gate.creole.ResourceInstantiationException;
 import gate.gui.ActionsPublisher;
 import groovy.lang.GroovyClassLoader;
-import groovy.lang.Script;
 import name.kazennikov.glorie.groovy.*;
 import name.kazennikov.sort.BinarySearch;
 import name.kazennikov.sort.FixedIntComparator;
-import org.antlr.v4.runtime.ANTLRInputStream;
-import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 import org.apache.log4j.Logger;
 import org.codehaus.groovy.control.CompilerConfiguration;
@@ -26,7 +22,6 @@ import javax.swing.*;
 import java.awt.event.ActionEvent;
 import java.io.File;
 import java.net.URL;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -34,7 +29,8 @@ import java.util.List;
 
 /**
  * GLR Analyser for GATE. Applies GLR Grammar to the provided document.
- * This class is essentially a wrapper over GLRParser.
+ * This class is an adapter of {@link GlorieEngine}: it converts GATE annotations to the input spans
+ * and the parse results back to annotations.
  */
 public class GLRAnalyser extends AbstractLanguageAnalyser implements CustomDuplication, ActionsPublisher {
     private static final Logger logger = Logger.getLogger(GLRAnalyser.class);
@@ -43,6 +39,7 @@ public class GLRAnalyser extends AbstractLanguageAnalyser implements CustomDupli
     protected CompiledGrammar grammar;
     protected GLRTable table;
     protected GLRParser parser;
+    protected GlorieEngine engine;
     protected File grammarFile;
     protected String asName;
 
@@ -56,6 +53,13 @@ public class GLRAnalyser extends AbstractLanguageAnalyser implements CustomDupli
     protected GroovyClassLoader classLoader;
     protected ParserContext parserContext;
     protected boolean printGLRTableOnInit = false;
+    protected ParseBudget budget = new ParseBudget();
+    protected File profileFile;     // runtime profile report, written on cleanup. JSON if the name ends with .json, TSV otherwise
+
+    // document features with the parse degradation report
+    public static final String DEGRADATION_FEATURE = "glorie.degradation";
+    public static final String DEGRADATION_OFFSET_FEATURE = "glorie.degradationOffset";
+    public static final String WORD_LIMIT_FEATURE = "glorie.wordLimitCount";
 
     @Override
     public Resource init() throws ResourceInstantiationException {
@@ -63,25 +67,13 @@ public class GLRAnalyser extends AbstractLanguageAnalyser implements CustomDupli
             throw new ResourceInstantiationException("Grammar file not specified");
 
         try {
+            GrammarCompiler compiler = new GrammarCompiler(grammarFile);
+            compiler.setParserContext(parserContext);
+            grammar = compiler.compile();
+            parserContext = compiler.getParserContext();
+            cc = compiler.getCompilerConfiguration();
+            classLoader = compiler.getClassLoader();
 
-            String src = Files.toString(grammarFile, Charset.forName("UTF-8"));
-            ParseTree parseTree = parseAST(src);
-
-            ClassloaderBuilder clBuilder = new ClassloaderBuilder();
-            clBuilder.addClassPath(new File(grammarFile.getParent(), "groovy").getAbsolutePath());
-            clBuilder.visit(parseTree);
-            clBuilder.build();
-            cc = clBuilder.cc();
-            classLoader = clBuilder.classloader();
-
-            parserContext = initParserContext(parseTree);
-
-            if(parserContext.astTransformation() != null) {
-                cc.addCompilationCustomizers(new SimpleASTCustomizer(parserContext.astTransformation()));
-            }
-
-
-            grammar = parseGrammar(src, parseTree);
             table = new GLRTable(grammar);
             table.buildGLRTable();
 
@@ -89,7 +81,13 @@ public class GLRAnalyser extends AbstractLanguageAnalyser implements CustomDupli
                 table.print(new File("glrtable.txt"));
             }
 
-            parser = new GLRParser(table);
+            engine = new GlorieEngine(table);
+            parser = engine.getParser();
+            parser.setBudget(budget);
+
+            if(profileFile != null) {
+                parser.setProfiler(new ParseProfiler(grammar));
+            }
         } catch(Exception e) {
             throw new ResourceInstantiationException(e);
         }
@@ -97,34 +95,28 @@ public class GLRAnalyser extends AbstractLanguageAnalyser implements CustomDupli
         return this;
     }
 
-    private ParserContext initParserContext(ParseTree pt) throws Exception {
-        if(parserContext != null) {
-            logger.info(String.format("Using predefined parser context: %s", parserContext.getClass().getName()));
-            return parserContext;
-        }
-
-        ParserContextClassNameVisitor cnVisitor = new ParserContextClassNameVisitor();
-
-        String parserContextClassName = cnVisitor.visit(pt);
-
-
-        if(parserContextClassName == null || parserContextClassName.isEmpty()) {
-            return new BasicParserContext();
-        }
-
-        try {
-            Class c = classLoader.loadClass(parserContextClassName);
-
-            if(Script.class.isAssignableFrom(c)) {
-                return (ParserContext) ((Script) c.newInstance()).run();
-            } else {
-                return (ParserContext) c.newInstance();
-            }
+    /**
+     * Parse grammar source into the AST
+     *
+     * @deprecated use {@link GrammarCompiler#parseAST(String)}
+     */
+    @Deprecated
+    public ParseTree parseAST(String src) throws Exception {
+        return GrammarCompiler.parseAST(src);
+    }
 
-        } catch(Exception e) {
-            logger.error(e);
-            throw e;
-        }
+    /**
+     * Compile grammar AST with the Groovy configuration and the parser context of this analyser
+     *
+     * @deprecated use {@link GrammarCompiler#compile(String)}
+     */
+    @Deprecated
+    public CompiledGrammar parseGrammar(String src, ParseTree pt) throws Exception {
+        GrammarCompiler compiler = new GrammarCompiler(grammarFile);
+        compiler.parserContext = parserContext;
+        compiler.cc = cc;
+        compiler.classLoader = classLoader;
+        return compiler.parseGrammar(src, pt);
     }
 
     private GroovyClassLoader initGroovyClassLoader() throws Exception {
@@ -182,80 +174,6 @@ public class GLRAnalyser extends AbstractLanguageAnalyser implements CustomDupli
         return classLoader;
     }
 
-    public ParseTree parseAST(String src) throws Exception {
-        ANTLRInputStream charStream = new ANTLRInputStream(src);
-        GLORIELexer lexer = new GLORIELexer(charStream);
-        CommonTokenStream tokenStream = new CommonTokenStream(lexer);
-        GLORIEParser parser = new GLORIEParser(tokenStream);
-        return parser.glr();
-    }
-
-
-    public CompiledGrammar parseGrammar(String src, ParseTree pt) throws Exception {
-
-        GrammarParser p = new GrammarParser(getGrammarURL(), parserContext, src);
-
-        Grammar g = p.visit(pt);
-
-        if(g.productions.isEmpty()) {
-            throw new IllegalStateException("Grammar '" + g.name + "' has no productions");
-        }
-
-        if(g.start == null) {
-            Symbol firstLHS = g.productions.get(0).lhs;
-            logger.info(String.format("Grammar root for '%s' not set. Using LHS of the first production '%s' as head", g.name, firstLHS.id));
-            g.start = firstLHS;
-        }
-
-        if(g.output.isEmpty()) {
-            logger.info(String.format("Output Nonterminals not specified, using grammar root '%s' as output", g.start.id));
-            g.output.add(g.start.id);
-        }
-
-
-        FlattenProductionRewriter seq = new FlattenProductionRewriter();
-        g.rewrite(seq);
-        g.rewriteTopLevelOr();
-        g.rewriteTopLevelSeq();
-
-        // check bindings
-        for(Production prod : g.productions) {
-            prod.validateBindings();
-        }
-
-        GroupRewriter groupRewriter = new GroupRewriter();
-        RangeRewriter rangeRewriter = new RangeRewriter();
-        g.rewrite(groupRewriter);
-        g.rewrite(rangeRewriter);
-
-        g.rewriteTopLevelSeq();
-        ReachabilityFilter reachabilityFilter = new ReachabilityFilter(g);
-        reachabilityFilter.filter();
-        g.removeEpsilon();
-        g.augmentGrammar();
-
-
-
-		g.transformPredicateNT();
-        for(Production prod : g.productions) {
-            prod.bindings(g);
-            prod.initHeadIndex();
-        }
-
-
-        g.computeReduceInfo();
-
-        g.computeEvaluators();
-        g.computePredInfo();
-        g.computePredFSA();
-
-
-        BasicReduceActionCompiler reduceActionCompiler = new BasicReduceActionCompiler(new GroovyCompiler(cc, classLoader));
-        InterpCompiler interpCompiler = new InterpCompiler(new GroovyCompiler(cc, classLoader));
-
-        return new CompiledGrammar(g, classLoader, reduceActionCompiler, interpCompiler);
-    }
-
     @Override
     public void execute() throws ExecutionException {
         List<Annotation> context = null;
@@ -289,16 +207,30 @@ public class GLRAnalyser extends AbstractLanguageAnalyser implements CustomDupli
 
 
         Collections.sort(spans, SymbolSpan.COMPARATOR);
+        String text = document.getContent().toString();
+
+        // the time limit of the budget applies to the whole document, not to each context
+        parser.setDocumentStartTime(System.currentTimeMillis());
 
+        try {
+            parseDocument(text, as, spans, context);
+        } finally {
+            parser.setDocumentStartTime(0);
+        }
+    }
+
+    /**
+     * Parse the document spans, as a whole or by context annotations
+     */
+    protected void parseDocument(String text, AnnotationSet as, final List<SymbolSpan> spans, List<Annotation> context) {
         if(context == null) {
 
             try {
-                List<SymbolSpan> filteredSpans = grammar.pre.exec(spans);
-                parser.init(document, filteredSpans);
-                parser.parse();
-                grammar.post.exec(document, as, table, parser.roots);
+                List<SymbolNode> roots = engine.parse(text, document.getFeatures(), spans);
+                grammar.post.exec(document, as, table, roots);
+                reportDegradation();
             } finally {
-                parser.clear();
+                engine.clear();
             }
         } else {
             for(Annotation ctx : context) {
@@ -340,17 +272,62 @@ public class GLRAnalyser extends AbstractLanguageAnalyser implements CustomDupli
                 workSet.add(new SymbolSpan(grammar.eof, "Split", -1, Integer.MAX_VALUE, Integer.MAX_VALUE, null, null, 1.0));
 
                 try {
-                    workSet = grammar.pre.exec(workSet);
-                    parser.init(document, workSet);
-                    parser.parse();
-					grammar.post.exec(document, as, table, parser.roots);
+                    List<SymbolNode> roots = engine.parse(text, document.getFeatures(), workSet);
+					grammar.post.exec(document, as, table, roots);
+                    reportDegradation();
                 } finally {
-                    parser.clear();
+                    engine.clear();
                 }
             }
         }
     }
 
+    /**
+     * Report degradation of the last parse in the document features.
+     * The most severe degradation of the document and the char offset of its word are kept
+     */
+    protected void reportDegradation() {
+        if(parser.getWordLimitCount() > 0) {
+            Object count = document.getFeatures().get(WORD_LIMIT_FEATURE);
+            int prev = count instanceof Integer? (Integer) count : 0;
+            document.getFeatures().put(WORD_LIMIT_FEATURE, prev + parser.getWordLimitCount());
+        }
+
+        ParseBudget.Degradation d = parser.getDegradation();
+
+        if(d == ParseBudget.Degradation.NONE)
+            return;
+
+        Object prev = document.getFeatures().get(DEGRADATION_FEATURE);
+
+        if(prev != null && ParseBudget.Degradation.valueOf(prev.toString()).ordinal() >= d.ordinal())
+            return;
+
+        document.getFeatures().put(DEGRADATION_FEATURE, d.name());
+
+        int pos = parser.getDegradationPos();
+
+        if(pos >= 0 && pos < parser.inputData.wordOffsets.size()) {
+            document.getFeatures().put(DEGRADATION_OFFSET_FEATURE, parser.inputData.wordOffsets.get(pos));
+        }
+    }
+
+    public GlorieEngine getEngine() {
+        return engine;
+    }
+
+    public ParseBudget getBudget() {
+        return budget;
+    }
+
+    public void setBudget(ParseBudget budget) {
+        this.budget = budget;
+
+        if(parser != null) {
+            parser.setBudget(budget);
+        }
+    }
+
     public URL getGrammarURL() {
         try {
             return grammarFile.toURL();
@@ -396,6 +373,48 @@ public class GLRAnalyser extends AbstractLanguageAnalyser implements CustomDupli
         this.groovyClassPath = groovyClassPath;
     }
 
+    @Override
+    public void cleanup() {
+        if(parser != null) {
+            parser.logPrefixFilterStats();
+            writeProfile();
+        }
+
+        super.cleanup();
+    }
+
+    /**
+     * Write the runtime profile report, if profiling is enabled
+     */
+    protected void writeProfile() {
+        if(profileFile == null || parser.getProfiler() == null)
+            return;
+
+        try {
+            if(profileFile.getName().endsWith(".json")) {
+                parser.getProfiler().writeJSON(profileFile);
+            } else {
+                parser.getProfiler().writeTSV(profileFile);
+            }
+        } catch(Exception e) {
+            logger.error("Failed to write profile to " + profileFile, e);
+        }
+    }
+
+    public File getProfileFile() {
+        return profileFile;
+    }
+
+    /**
+     * Enable runtime profiling of the parser. Duplicates of the analyser don't profile,
+     * as they would write the same report file
+     *
+     * @param profileFile report file
+     */
+    public void setProfileFile(File profileFile) {
+        this.profileFile = profileFile;
+    }
+
     @Override
     public void reInit() throws ResourceInstantiationException {
         parserContext = null;
@@ -425,7 +444,10 @@ public class GLRAnalyser extends AbstractLanguageAnalyser implements CustomDupli
             copy.grammar = grammar.copy();
             copy.table = new GLRTable(copy.grammar);
             table.copy(copy.table);
-            copy.parser = new GLRParser(copy.table);
+            copy.engine = new GlorieEngine(copy.table);
+            copy.parser = copy.engine.getParser();
+            copy.budget = budget;
+            copy.parser.setBudget(budget);
 
 
             return copy;
@@ -448,20 +470,10 @@ public class GLRAnalyser extends AbstractLanguageAnalyser implements CustomDupli
         });
     }
 
-    public static class ParserContextClassNameVisitor extends GLORIEBaseVisitor<String> {
-
-        String className;
-
-        @Override
-        public String visitGlr(GLORIEParser.GlrContext ctx) {
-            super.visitGlr(ctx);
-            return className;
-        }
-
-        @Override
-        public String visitParserContext(GLORIEParser.ParserContextContext ctx) {
-            className = ctx.className().getText();
-            return className;
-        }
+    /**
+     * @deprecated use {@link GrammarCompiler.ParserContextClassNameVisitor}
+     */
+    @Deprecated
+    public static class ParserContextClassNameVisitor extends GrammarCompiler.ParserContextClassNameVisitor {
     }
 }
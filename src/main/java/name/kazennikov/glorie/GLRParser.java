@@ -2,6 +2,7 @@ package name.kazennikov.glorie;
 
 import gate.Document;
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TIntHashSet;
 import org.apache.log4j.Logger;
 
 import java.io.File;
@@ -16,7 +17,7 @@ public class GLRParser {
 
     private static final Logger logger = Logger.getLogger(GLRParser.class);
 
-    // invalid span object, used in spanMaps cache
+    // invalid span object, used in reduction cache
     public static final SymbolSpan INVALID_SPAN = new SymbolSpan(-1, null, -1, 0, 0, null, null, 0.0);
 
 
@@ -98,6 +99,7 @@ public class GLRParser {
 
 
     // Graph Structured Stack
+    final GSSArena gss = new GSSArena();
     StateNode startNode;
     SymbolSpan eof;
 
@@ -106,14 +108,41 @@ public class GLRParser {
     // active states per word position
     List<List<StateNode>> nodes4word = new ArrayList<>();
 
+    // state nodes indexed by (word, state), used by createOrReuseStateNode()
+    final StateNodeIndex stateNodeIndex = new StateNodeIndex();
+
+    // symbol nodes of reductions at current word, used for local ambiguity packing
+    final PackingIndex packingIndex = new PackingIndex();
+
+    // reduction path suffixes of current word
+    final ReductionPaths reductionPaths = new ReductionPaths(gss);
+
     int maxWordState = 0; // current maximum word with at least one state
 
     // list of created root nodes
     List<SymbolNode> roots = new ArrayList<>();
+    int settledRoots;   // roots before this index end before the parse frontier
+
+    final GreedyFilter greedy;
 
     InputData inputData;
     SymbolSpanPredicateEvaluator predEval;
-    boolean[] starts;
+    PrefixScanner prefixScanner;
+
+    // prefix filter stats: scanned words, allowed starts, and start words of the roots
+    int prefixWordCount;
+    int prefixStartCount;
+    final BitSet rootStarts = new BitSet();
+    long totalPrefixWordCount;
+    long totalPrefixStartCount;
+    long totalRootStartCount;
+
+    // auto prefix length: scanners of the candidate prefix lengths, run on the first documents
+    PrefixScanner[] sampleScanners;
+    long[] sampleStartCounts;
+    int sampledDocs;
+    public static final int AUTO_PREFIX_SAMPLE_SIZE = 20;
+    public static final double AUTO_PREFIX_TOLERANCE = 0.05; // max relative loss of the start filtering
 
     final GLRTable table;
     final CompiledGrammar grammar;
@@ -130,6 +159,12 @@ public class GLRParser {
 	// rhs spans used during process()
 	List<SymbolSpan> reduceRHS = new ArrayList<>(256);
 
+	// expansion buffers of binarized reductions, used in reduceBinarized()
+	SymbolNode[] expandRHS = new SymbolNode[16];
+	SymbolNode[] expandNodes = new SymbolNode[16];
+	int[] expandNext = new int[16];
+	List<StackNode> expandPath = new ArrayList<>(64);
+
     int lastSymbolNodeId = 0;   // last id of a symbol node
 	int lastStateNodeId = 1;	// last id, of a start node, start node has id = 0
 
@@ -137,13 +172,73 @@ public class GLRParser {
 
 
     // reduction cache, minimizes of predicate checks and reduce action invocations
-    // spanMaps[rule.id]: a map of TIntArrayList of SymbolSpan symbol ids to target SymbolSpan
-	Map[] spanMaps;
+    // maps (rule.id, RHS SymbolSpan ids) to target SymbolSpan
+	final ReductionTrie reductionCache;
 
     // reduction cache stats
     int reduceCacheHits = 0;
     int reducerCacheMisses = 0;
 
+    // state node stats
+    int stateNodeReuseCount = 0;
+    int stateNodeCreateCount = 0;
+
+    // parse budget of a document
+    ParseBudget budget = new ParseBudget();
+    ParseBudget.Degradation degradation = ParseBudget.Degradation.NONE;
+    int degradationPos = -1;    // word position where the current degradation level was reached
+    long parseStartTime;
+    long documentStartTime;     // start time of a document parsed by several parses, 0 - the time of each parse
+    int reductionCount;         // number of performed reductions in current document
+    int wordLimitCount;         // number of words that reached maxWordSymbolNodes
+
+    // beam mode: prune symbol nodes of a word by weight before shifter()
+    int beamWidth;              // max symbol nodes per (state, symbol), 0 - unlimited
+    double beamRatio;           // min ratio to the best weight per (state, symbol), 0 - unlimited
+    int degradedBeamWidth;      // beam width enabled by the parse budget, 0 - none
+    int beamPrunedCount;        // number of pruned symbol nodes in current document
+    final List<SymbolNode> beamNodes = new ArrayList<>();
+    final TIntHashSet beamPruned = new TIntHashSet();
+
+    // beam order: by symbol, then by weight descending
+    static final Comparator<SymbolNode> BEAM_ORDER = new Comparator<SymbolNode>() {
+        @Override
+        public int compare(SymbolNode o1, SymbolNode o2) {
+            int res = Integer.compare(o1.symbol.symbol, o2.symbol.symbol);
+            if(res != 0)
+                return res;
+
+            return Double.compare(o2.symbol.weight, o1.symbol.weight);
+        }
+    };
+
+    // hybrid mode: perform reductions on linear GSS segments directly in actor()
+    boolean hybrid;
+    final PendingReduction linearReduction = new PendingReduction();
+    int linearReductionCount = 0;
+
+    // streaming mode: release GSS nodes and caches behind the parse frontier
+    boolean streaming;
+    int releasedWords;          // nodes of words before this position are released
+    int[] synthCacheSpans;      // span id of each synth cache row, streaming mode only
+    boolean windowedCaches;     // predicate and synth caches are windows, streaming or incremental input
+    int usedWordLists;          // number of nodes4word lists used by the current parse
+
+    // number of spans in the predicate and synth cache windows of the streaming mode
+    public static final int STREAMING_CACHE_WINDOW = 4096;
+
+    // incremental input: next word to scan and to parse
+    final List<SymbolSpan> wordSpans = new ArrayList<>();
+    int prefixPos;
+    int parsePos;
+
+    // listener of finalized roots, null - roots are kept in the roots list until the end of the parse
+    RootListener rootListener;
+    int emittedRootCount;
+
+    // runtime profiler, null - profiling is disabled
+    ParseProfiler profiler;
+
 
 
 
@@ -152,16 +247,212 @@ public class GLRParser {
         this.grammar = table.g;
         eof = new SymbolSpan(grammar.eof, "Split", -1, Integer.MAX_VALUE, Integer.MAX_VALUE, null, null, 1.0);
         this.maxSynthSize = table.g.maxSynthSize;
+        this.hybrid = table.g.grammar.hybrid;
+        this.streaming = table.g.grammar.streaming;
+        this.beamWidth = table.g.grammar.beamWidth;
+        this.beamRatio = table.g.grammar.beamRatio;
 
         // stats
         reduceAttemptCount = new int[table.g.rules.length + 1];
         reduceSuccessCount = new int[table.g.rules.length + 1];
-		spanMaps = new HashMap[this.table.g.rules.length + 1];
-		for(int i = 0; i < spanMaps.length; i++) {
-			spanMaps[i] = new HashMap();
+		reductionCache = new ReductionTrie(table.g.rules.length + 1);
+		prefixScanner = new PrefixScanner(this);
+		greedy = new GreedyFilter(this);
+
+		if(table.g.prefixFSAs != null) {
+			sampleScanners = new PrefixScanner[table.g.prefixFSAs.length];
+			sampleStartCounts = new long[table.g.prefixFSAs.length];
+
+			for(int k = 0; k < sampleScanners.length; k++) {
+				if(table.g.prefixFSAs[k] != null && table.g.prefixFSAs[k] != table.g.prefixFSA) {
+					sampleScanners[k] = new PrefixScanner(this, table.g.prefixFSAs[k]);
+				}
+			}
 		}
     }
 
+	public int getReduceCacheHits() {
+		return reduceCacheHits;
+	}
+
+	public ParseProfiler getProfiler() {
+		return profiler;
+	}
+
+	/**
+	 * Enable runtime profiling of the parser. The profiler aggregates stats of all further parses
+	 * @param profiler profiler of the parser grammar, null to disable profiling
+	 */
+	public void setProfiler(ParseProfiler profiler) {
+		this.profiler = profiler;
+
+		if(predEval != null) {
+			predEval.setProfiler(profiler);
+		}
+	}
+
+	public int getStateNodeReuseCount() {
+		return stateNodeReuseCount;
+	}
+
+	public int getStateNodeCreateCount() {
+		return stateNodeCreateCount;
+	}
+
+	public ParseBudget getBudget() {
+		return budget;
+	}
+
+	public void setBudget(ParseBudget budget) {
+		this.budget = budget;
+	}
+
+	/**
+	 * Degradation level of the last parse
+	 */
+	public ParseBudget.Degradation getDegradation() {
+		return degradation;
+	}
+
+	/**
+	 * Word position where the last parse reached its degradation level, -1 if the parse wasn't degraded
+	 */
+	public int getDegradationPos() {
+		return degradationPos;
+	}
+
+	public long getDocumentStartTime() {
+		return documentStartTime;
+	}
+
+	/**
+	 * Set start time of a document that is parsed by several parses, e.g. one parse per context annotation.
+	 * The time limit of the budget is then counted from this time, so it applies to the whole document
+	 *
+	 * @param documentStartTime document start time, ms, 0 to count the time limit from the start of each parse
+	 */
+	public void setDocumentStartTime(long documentStartTime) {
+		this.documentStartTime = documentStartTime;
+	}
+
+	/**
+	 * Number of words of the last parse that reached the maxWordSymbolNodes limit
+	 */
+	public int getWordLimitCount() {
+		return wordLimitCount;
+	}
+
+	public int getReductionCount() {
+		return reductionCount;
+	}
+
+	public int getBeamWidth() {
+		return beamWidth;
+	}
+
+	public void setBeamWidth(int beamWidth) {
+		this.beamWidth = beamWidth;
+	}
+
+	public double getBeamRatio() {
+		return beamRatio;
+	}
+
+	/**
+	 * Set min ratio of a node weight to the best weight of its (state, symbol) group
+	 * @param beamRatio ratio in (0, 1], 0 - unlimited
+	 */
+	public void setBeamRatio(double beamRatio) {
+		if(!(beamRatio >= 0 && beamRatio <= 1))
+			throw new IllegalArgumentException("Beam ratio must be in (0, 1], or 0 for unlimited: " + beamRatio);
+
+		this.beamRatio = beamRatio;
+	}
+
+	public int getBeamPrunedCount() {
+		return beamPrunedCount;
+	}
+
+	public boolean isHybrid() {
+		return hybrid;
+	}
+
+	public void setHybrid(boolean hybrid) {
+		this.hybrid = hybrid;
+	}
+
+	public int getLinearReductionCount() {
+		return linearReductionCount;
+	}
+
+	public boolean isStreaming() {
+		return streaming;
+	}
+
+	public void setStreaming(boolean streaming) {
+		this.streaming = streaming;
+	}
+
+	public RootListener getRootListener() {
+		return rootListener;
+	}
+
+	/**
+	 * Set listener of finalized roots. If the listener is set, the roots are passed to the listener
+	 * as soon as the parse frontier moves past them, and aren't kept in the roots list.
+	 * The remaining roots are passed at the end of parse()
+	 */
+	public void setRootListener(RootListener rootListener) {
+		this.rootListener = rootListener;
+	}
+
+	/**
+	 * Number of roots passed to the root listener in the last parse
+	 */
+	public int getEmittedRootCount() {
+		return emittedRootCount;
+	}
+
+	/**
+	 * Number of words of the last parse
+	 */
+	public int getPrefixWordCount() {
+		return prefixWordCount;
+	}
+
+	/**
+	 * Number of words of the last parse allowed as parse starts by the prefix filter
+	 */
+	public int getPrefixStartCount() {
+		return prefixStartCount;
+	}
+
+	/**
+	 * Number of distinct start words of the roots of the last parse
+	 */
+	public int getRootStartCount() {
+		return rootStarts.cardinality();
+	}
+
+	/**
+	 * Log cumulative prefix filter stats: the fraction of words rejected by the filter,
+	 * and the fraction of allowed starts that produced a root
+	 */
+	public void logPrefixFilterStats() {
+		logger.info(String.format("Prefix filter: %d of %d words allowed (%.1f%% filtered), %d root starts (%.1f%% of allowed)",
+				totalPrefixStartCount, totalPrefixWordCount,
+				totalPrefixWordCount == 0? 0.0 : 100.0 * (totalPrefixWordCount - totalPrefixStartCount) / totalPrefixWordCount,
+				totalRootStartCount,
+				totalPrefixStartCount == 0? 0.0 : 100.0 * totalRootStartCount / totalPrefixStartCount));
+	}
+
+	/**
+	 * Number of GSS nodes released behind the parse frontier in the streaming mode
+	 */
+	public int getReleasedNodeCount() {
+		return gss.releasedCount();
+	}
+
 	public int getMaxWordSymbolNodes() {
 		return maxWordSymbolNodes;
 	}
@@ -171,199 +462,226 @@ public class GLRParser {
 	}
 
 	public void init(Document doc, List<SymbolSpan> input) {
-        startNode = new StateNode(0);
+		init(new InputData(doc, input));
+	}
+
+	/**
+	 * Init parser for incremental input. The input is fed by offer() and finish()
+	 * @param doc source document
+	 */
+	public void initIncremental(Document doc) {
+		init(new InputData(doc));
+	}
+
+	public void init(InputData inputData) {
+        parseStartTime = documentStartTime > 0? documentStartTime : System.currentTimeMillis();
+        degradation = ParseBudget.Degradation.NONE;
+        degradationPos = -1;
+        reductionCount = 0;
+        wordLimitCount = 0;
+        degradedBeamWidth = 0;
+        beamPrunedCount = 0;
+        releasedWords = 0;
+        emittedRootCount = 0;
+        settledRoots = 0;
+        rootStarts.clear();
+
+        startNode = gss.newStateNode(0);
 		startNode.index = 0;
         lastSymbolNodeId = 0;
 		lastStateNodeId = 1;
-        inputData = new InputData(doc, input);
+        this.inputData = inputData;
 
-        for(int i = 0; i < inputData.wordStarts.size() + 1; i++) {
-            nodes4word.add(new ArrayList<StateNode>(128)); // word[i] nodes
+        ensureWordLists(inputData.wordCount());
+
+        // span ids of the incremental input aren't bounded by the input size
+        windowedCaches = streaming || inputData.isIncremental();
+
+        // the evaluator and the caches are reused between parses, only used parts are reset
+        if(predEval != null && predEval.isWindowed() == windowedCaches) {
+            predEval.reset(inputData);
+        } else if(windowedCaches) {
+            predEval = new SymbolSpanPredicateEvaluator(grammar, inputData, STREAMING_CACHE_WINDOW);
+        } else {
+            predEval = new SymbolSpanPredicateEvaluator(grammar, inputData);
         }
 
+        predEval.setProfiler(profiler);
 
+        int synthSize = windowedCaches? STREAMING_CACHE_WINDOW * maxSynthSize : inputData.size() * maxSynthSize;
 
-        predEval = new SymbolSpanPredicateEvaluator(grammar, inputData);
-        synthCache = new byte[inputData.size() * maxSynthSize];
+        if(synthCache == null || synthCache.length < synthSize) {
+            synthCache = new byte[synthSize];
+        }
 
-        Arrays.fill(synthCache, (byte) -1);
-        starts = walkPrefixTrie();
-    }
+        if(windowedCaches) {
+            // rows are reset when taken by a span
+            if(synthCacheSpans == null) {
+                synthCacheSpans = new int[STREAMING_CACHE_WINDOW];
+            }
 
+            Arrays.fill(synthCacheSpans, -1);
+        } else {
+            Arrays.fill(synthCache, 0, synthSize, (byte) -1);
+        }
 
-    public int baseSynthCacheIndex(int spanId) {
-        return spanId * maxSynthSize;
+        if(inputData.isIncremental()) {
+            prefixScanner.reset();
+            prefixPos = 0;
+            parsePos = 0;
+        } else {
+            scanPrefixes();
+        }
     }
 
+    /**
+     * Offer spans to the incremental input and parse all words that became complete
+     * @param spans spans sorted by start offset, that don't start before the previously offered spans
+     */
+    public void offer(List<SymbolSpan> spans) {
+        inputData.append(spans);
+        advance();
+    }
 
     /**
-     * Parse state for prefix FSA walker
+     * Finish the incremental input and parse the rest of it
      */
-    public static class ParseState {
-        int start;
-        int state;
-        int pos;
+    public void finish() {
+        inputData.finish();
+        advance();
 
-        public ParseState(int start, int state, int pos) {
-            this.start = start;
-            this.state = state;
-            this.pos = pos;
-        }
+        finishParse();
     }
 
-    private static ParseState GUARD_STATE = new ParseState(-1, -1, -1);
+    /**
+     * Advance the incremental parse: scan prefixes over resolved words and parse all words
+     * with known start flag. A word is parsed exactly as in parse(), so the result is the same
+     * as of the batch parse.
+     */
+    void advance() {
+        int resolved = inputData.resolvedWords();
+
+        ensureWordLists(inputData.wordCount());
+
+        while(prefixPos < resolved) {
+            prefixScanner.scan(prefixPos++);
+        }
+
+        // start flag of a word is known when no prefix scan from it is live
+        int known = inputData.isFinished()? resolved : prefixScanner.minLiveStart(resolved);
+
+        while(parsePos < known && degradation != ParseBudget.Degradation.STOPPED) {
+            parseWord(parsePos++, wordSpans);
+        }
+    }
 
 
     /**
-     * Walk prefix Trie
-     * @return array of boolean start[i] = true, if there is a prefix trie match from word i
+     * Ensure that state node lists exist for words [0, words]. The lists are pooled between parses
      */
-    boolean[] walkPrefixTrie() {
-        boolean[] starts = new boolean[inputData.wordStarts.size()];
-        int curr = 0;
-        ArrayDeque<ParseState> prefixStates = new ArrayDeque<>(16);
-        prefixStates.clear();
+    void ensureWordLists(int words) {
+        while(nodes4word.size() <= words) {
+            nodes4word.add(new ArrayList<StateNode>(128)); // word[i] nodes
+        }
 
+        for(int i = usedWordLists; i <= words; i++) {
+            if(nodes4word.get(i) == null) {
+                nodes4word.set(i, new ArrayList<StateNode>(128));
+            }
+        }
 
-        while(curr < inputData.wordStarts.size()) {
+        usedWordLists = Math.max(usedWordLists, words + 1);
+    }
 
-            prefixStates.addLast(new ParseState(curr, 0, curr));
-            prefixStates.addLast(GUARD_STATE);
-            int start = inputData.wordStarts.get(curr);
-            int end = inputData.wordEnds.get(curr);
+    public int baseSynthCacheIndex(int spanId) {
+        if(!windowedCaches)
+            return spanId * maxSynthSize;
 
-            while(!prefixStates.isEmpty()) {
+        // streaming mode: the cache is a window of rows, a row is reset when taken by another span
+        int row = spanId & (STREAMING_CACHE_WINDOW - 1);
+        int base = row * maxSynthSize;
 
-                ParseState state = prefixStates.pollFirst();
+        if(synthCacheSpans[row] != spanId) {
+            synthCacheSpans[row] = spanId;
+            Arrays.fill(synthCache, base, base + maxSynthSize, (byte) -1);
+        }
 
-                if(state == GUARD_STATE) {
-                    break;
-                }
+        return base;
+    }
 
-                if(state.pos != curr) {
-                    prefixStates.addLast(state);
-                    continue;
-                }
 
-                if(grammar.prefixFSA.isFinalState(state.state)) {
-                    starts[state.start] = true;
-                    continue;
-                }
+    /**
+     * Scan the whole input with the prefix scanner
+     */
+    void scanPrefixes() {
+        prefixScanner.reset();
 
+        for(int word = 0; word < inputData.wordCount(); word++) {
+            prefixScanner.scan(word);
+        }
 
-                if(starts[state.start]) {
-                    continue;
-                }
+        if(sampleScanners != null) {
+            samplePrefixLength();
+        }
+    }
 
-                for(int i = start; i < end; i++) {
-                    SymbolSpan ss = inputData.get(i);
-                    if(ss.symbol == -1)
-                        continue;
+    /**
+     * Auto prefix length: count allowed starts of the candidate prefix lengths on the document.
+     * After the sample, select the shortest prefix length that filters almost as many starts
+     * as the longest one. A shorter prefix has a smaller FSA and less live scanner states.
+     */
+    void samplePrefixLength() {
+        int words = inputData.wordCount();
 
-                    // walk plain terminal
-                    int input = ss.symbol;
-                    int nextState = grammar.prefixFSA.next(state.state, input);
-                    if(nextState != -1) {
-                        if(grammar.prefixFSA.isFinalState(nextState)) {
-                            starts[state.start] = true;
-                            continue;
-                        }
-                        prefixStates.addLast(new ParseState(state.start, nextState, inputData.nextWords[i]));
-                    }
+        for(int k = 0; k < sampleScanners.length; k++) {
+            PrefixScanner scanner = sampleScanners[k];
 
-                    // try to walk synth terminals
-
-                    SynthTerminalEvaluator eval = grammar.evaluators[ss.symbol];
-                    if(eval != null) {
-                        int synthBaseIndex = baseSynthCacheIndex(ss.id);
-
-                        for(int j = 0; j < eval.size(); j++) {
-                            byte val = synthCache[synthBaseIndex + j];
-                            // need to eval
-                            if(val == -1) {
-                                int predId = eval.predIds.get(j);
-                                val = (byte) (predEval.eval(predId, ss)? 1 : 0);
-                                synthCache[synthBaseIndex + j] = val;
-                            }
-
-                            if(val == 1) {
-                                int symId = eval.typeIds.get(j);
-                                int nextState1 = grammar.prefixFSA.next(state.state, symId);
-                                if(nextState1 != -1) {
-                                    if(grammar.prefixFSA.isFinalState(nextState1)) {
-                                        starts[state.start] = true;
-                                        continue;
-                                    }
-                                    prefixStates.addLast(new ParseState(state.start, nextState1, inputData.nextWords[i]));
-                                }
-
-                            }
-                        }
-
-                        // walk fsa
-                        for(int j = 0; j < eval.accessors.size(); j++) {
-                            int accId = eval.accessors.get(j);
-                            FeatureAccessor fa = grammar.accessors.get(accId);
-                            Object val = fa.get(predEval, ss);
-                            if(val == null)
-                                continue;
-                            int objId = grammar.fsaPredValues.get(val, false);
-                            // there is something
-                            if(objId != 0) {
-                                int s = 0;
-                                s = grammar.predFSA.next(s, accId);
-                                if(s == -1)
-                                    continue;
-                                s = grammar.predFSA.next(s, objId);
-                                if(s == -1)
-                                    continue;
-                                int trStart = grammar.predFSA.stateStart(s);
-                                int trEnd = grammar.predFSA.stateEnd(s);
-
-                                for(int k = trStart; k < trEnd; k++) {
-                                    int symId = grammar.predFSA.label(k);
-                                    int nextState1 = grammar.prefixFSA.next(state.state, symId);
-                                    if(nextState1 != -1) {
-                                        if(grammar.prefixFSA.isFinalState(nextState1)) {
-                                            starts[state.start] = true;
-                                            continue;
-                                        }
-                                        prefixStates.addLast(new ParseState(state.start, nextState1, inputData.nextWords[i]));
-                                    }
-
-
-                                }
-                            }
-                        }
-                    }
-                }
+            if(grammar.prefixFSAs[k] == null)
+                continue;
 
+            if(scanner == null) {
+                sampleStartCounts[k] += prefixScanner.startCount(words);
+                continue;
+            }
 
+            scanner.reset();
 
+            for(int word = 0; word < words; word++) {
+                scanner.scan(word);
             }
-            curr++;
+
+            sampleStartCounts[k] += scanner.startCount(words);
         }
 
-        while(!prefixStates.isEmpty()) {
-            ParseState state = prefixStates.pollFirst();
+        if(++sampledDocs < AUTO_PREFIX_SAMPLE_SIZE)
+            return;
 
-            if(state == GUARD_STATE)
-                continue;
-            if(grammar.prefixFSA.isFinalState(state.state)) {
-                starts[state.start] = true;
+        long best = sampleStartCounts[grammar.prefixLength];
+        int selected = grammar.prefixLength;
+
+        for(int k = 1; k < grammar.prefixLength; k++) {
+            if(grammar.prefixFSAs[k] != null && sampleStartCounts[k] <= best * (1 + AUTO_PREFIX_TOLERANCE)) {
+                selected = k;
+                break;
             }
         }
 
-        return starts;
-    }
+        logger.info(String.format("Auto prefix length: selected %d, allowed starts on %d documents: %s",
+                selected, sampledDocs, Arrays.toString(sampleStartCounts)));
 
+        if(selected != grammar.prefixLength) {
+            prefixScanner = new PrefixScanner(this, grammar.prefixFSAs[selected]);
+        }
 
+        sampleScanners = null;
+    }
 
     public void actor(List<SymbolSpan> symbols, int currentPos) {
 
         StateNode node = activeStates.get(activeStates.size() - 1);
 		activeStates.remove(activeStates.size() - 1);
         node.active = false;
+        boolean stopped = false;    // the word symbol limit or the budget stopped the reductions
 
         for(SymbolSpan symbol : symbols) {
 
@@ -371,22 +689,38 @@ public class GLRParser {
             if(symbol.symbol == -1)
                 continue;
 
-            GLRTable.SLRCell cell = table.getCell(node.state, symbol.symbol);
+            int cell = table.cell(node.state, symbol.symbol);
 
-            if(cell == null) {
+            if(cell == -1) {
                 continue;
             }
 
-            if(cell.shift) {
+            int shiftState = table.shiftState(cell);
+
+            if(shiftState != -1) {
                 PendingShift shift = new PendingShift();
                 shift.stateNode = node;
-                shift.nextState = cell.gotoLine;
+                shift.nextState = shiftState;
                 shift.symbol = symbol;
                 shift.nextWord = inputData.nextWords[symbol.id];
                 pendingShifts.add(shift);
             }
 
-            for(CompiledGrammar.Rule rule : cell.reduceRules) {
+            if(stopped)
+                continue;
+
+            for(int r = table.reduceStart(cell); r < table.reduceEnd(cell); r++) {
+                CompiledGrammar.Rule rule = grammar.rules[table.reduceRule(r)];
+
+                if(hybrid && isLinear(rule, node)) {
+                    if(!reduceLinear(symbols, rule, node, currentPos)) {
+                        stopped = true;
+                        break;
+                    }
+
+                    continue;
+                }
+
                 for(int childIdx = 0; childIdx < node.childCount(); childIdx++) {
 					SymbolNode child = node.getChild(childIdx);
                     PendingReduction reduction = new PendingReduction();
@@ -401,6 +735,61 @@ public class GLRParser {
 
     }
 
+    /**
+     * Deterministic fast path of the hybrid mode. If the GSS below the node is a single linear stack
+     * for the rule length, then the reduction is performed directly, without pending reduction and path search.
+     *
+     * All nodes of the path except the node itself belong to previous words and don't change anymore.
+     * If the node gets a new child later, the reductions over it are queued by reduceOnePath() as usual,
+     * so the resulting forest is the same as with the pending reduction.
+     *
+     * @param symbols current symbols
+     * @param rule reduce rule
+     * @param node top state node, the GSS below it must be linear for the rule (see isLinear())
+     * @param currentPos current word position
+     * @return true, if search for possible reductions should be continued, false if the word symbol
+     * limit is reached or the parse is stopped by the budget
+     */
+    boolean reduceLinear(List<SymbolSpan> symbols, CompiledGrammar.Rule rule, StateNode node, int currentPos) {
+        reducePath.clear();
+        StackNode current = node;
+        reducePath.add(current);
+
+        for(int i = 1; i < rule.reductionPathSize; i++) {
+            current = current.getChild(0);
+            reducePath.add(current);
+        }
+
+        linearReduction.rule = rule;
+        linearReduction.symbolNode = node.getChild(0);
+        linearReduction.lastStateNode = node;
+        linearReduction.currentPos = currentPos;
+
+        boolean proceed = reduceOnePath(symbols, linearReduction, reducePath);
+        reducePath.clear();
+        linearReductionCount++;
+
+        return proceed;
+    }
+
+    /**
+     * Checks if the GSS below the node is a single linear stack for the rule length
+     *
+     * @param rule reduce rule
+     * @param node top state node
+     */
+    boolean isLinear(CompiledGrammar.Rule rule, StateNode node) {
+        StackNode current = node;
+
+        for(int i = 1; i < rule.reductionPathSize; i++) {
+            if(current.childCount() != 1)
+                return false;
+            current = current.getChild(0);
+        }
+
+        return true;
+    }
+
     /**
 	SHIFTER(i)
 	while (pendingShifts != 0) {
@@ -411,7 +800,7 @@ public class GLRParser {
 	};
 
     */
-    public void shifter() {
+    public void shifter(int pos) {
 
         while(!pendingShifts.isEmpty()) {
             PendingShift shift = pendingShifts.get(pendingShifts.size() - 1);
@@ -430,16 +819,18 @@ public class GLRParser {
             }
 
             if(symbolNode == null) {
-                symbolNode = new SymbolNode(shift.symbol);
+                symbolNode = gss.newSymbolNode(shift.symbol);
                 symbolNode.index = lastSymbolNodeId++;
 
 
-                node.children.add(symbolNode);
+                node.addChild(symbolNode);
 
             }
 
-            if(symbolNode.children.indexOf(shift.stateNode) == -1) {
-                symbolNode.children.add(shift.stateNode);
+            if(!symbolNode.hasChild(shift.stateNode)) {
+                symbolNode.addChild(shift.stateNode);
+                symbolNode.minWord = Math.min(symbolNode.minWord, shift.stateNode == startNode? pos : shift.stateNode.minWord);
+                node.minWord = Math.min(node.minWord, symbolNode.minWord);
             }
         }
     }
@@ -459,16 +850,19 @@ public class GLRParser {
             return startNode;
         }
 
-        List<StateNode> nodes = nodes4word.get(word);
-        for(int index = 0; index < nodes.size(); index++) {
-            if(nodes.get(index).state == state)
-                return nodes.get(index);
+        StateNode node = stateNodeIndex.get(word, state);
+        if(node != null) {
+            stateNodeReuseCount++;
+            return node;
         }
 
         maxWordState = Math.max(maxWordState, word);
-        StateNode node = new StateNode(state);
+        node = gss.newStateNode(state);
 		node.index = lastStateNodeId++;
-        nodes.add(node);
+		node.minWord = word;
+        nodes4word.get(word).add(node);
+        stateNodeIndex.put(word, node);
+        stateNodeCreateCount++;
 
         if(addToActive) {
             activeStates.add(node);
@@ -480,51 +874,55 @@ public class GLRParser {
 
 
     /**
-     * This  function is a recursive depth-first search in GSS (see Internet for documentation).
-     * when a reducePath of length 2*RuleLength-1 is found the reduction action (procedure ReduceOnePath) is called.
-     *
-     * Here is description of this procedure.
-     * We use DFS-stack which is a sequence of pairs
-     * <first[1],end[1]>, <first[2],end[2]>,...,<first[n],end[n]>,  where  for each 1<i<=n,
-     *  <first[i],end[i]> are all unobserved children of node first[i-1]. Each iteration we made
-     * the following:
-     * 1. the current  reducePath is not long enough  and  the current top of the DFS stack has children
-     *    push to DFS stack all children of current top.
-     * 2. otherwise  we go to the neighbour or to the parent's neighbour of the current top, if a neighbour doesn't exist
+     * Perform the last pending reduction on all GSS paths of length 2*RuleLength+1 from its last state node.
+     * For each path the reduction action (procedure ReduceOnePath) is called.
      *
+     * The paths are enumerated by ReductionPaths: an iterative depth-first search in GSS
+     * with explicit stack. Path suffixes from the reduction symbol node are memoized for the current word,
+     * so pending reductions that share a symbol node and a rule length walk the GSS once.
+     * Suffix sets that exceed the memo size are walked directly.
      */
-
     public void reducer(List<SymbolSpan> symbols) {
         PendingReduction reduction = pendingReductions.get(pendingReductions.size() - 1);
 		pendingReductions.remove(pendingReductions.size() - 1);
 
-        // adding the first item of the DFS-stack
-        reducePath.add(reduction.lastStateNode);
-        reducePath.add(reduction.symbolNode);
+        int length = reduction.rule.reductionPathSize - 1;
+        int entry = reductionPaths.suffixes(reduction.symbolNode, length);
 
-        reduce(reduction, symbols, reduction.symbolNode, reducePath);
-        reducePath.clear();
-    }
+        if(entry == ReductionPaths.NOT_MEMOIZED) {
+            reductionPaths.walk(reduction.symbolNode, length);
 
-    public boolean reduce(PendingReduction reduction, List<SymbolSpan> symbols, StackNode current, List<StackNode> path) {
+            while(reductionPaths.nextPath()) {
+                reducePath.clear();
+                reducePath.add(reduction.lastStateNode);
 
-        if(path.size() == reduction.rule.reductionPathSize) {
-            return reduceOnePath(symbols, reduction, path);
+                for(int j = 0; j < length; j++) {
+                    reducePath.add(reductionPaths.walkNode(j));
+                }
+
+                if(!reduceOnePath(symbols, reduction, reducePath))
+                    break;
+            }
+
+            reducePath.clear();
+            return;
         }
 
-        for(int i = 0; i < current.childCount(); i++) {
-            StackNode child = current.getChild(i);
+        int count = reductionPaths.count(entry);
 
-            path.add(child);
+        for(int i = 0; i < count; i++) {
+            reducePath.clear();
+            reducePath.add(reduction.lastStateNode);
 
-            if(!reduce(reduction, symbols, child, path)) {
-				return false;
-			}
+            for(int j = 0; j < length; j++) {
+                reducePath.add(reductionPaths.node(entry, length, i, j));
+            }
 
-            path.remove(path.size() - 1);
+            if(!reduceOnePath(symbols, reduction, reducePath))
+                break;
         }
 
-		return true;
+        reducePath.clear();
     }
 
 
@@ -560,7 +958,112 @@ public class GLRParser {
 	 * @return true, if search for possible reductions path should be continued
 	 */
     public boolean reduceOnePath(List<SymbolSpan> symbols, PendingReduction reduction, List<StackNode> path) {
+        if(reduction.rule.binarized) {
+            return reduceBinarized(symbols, reduction, path);
+        }
+
+        return reduceFlatPath(symbols, reduction, path);
+    }
+
+    /**
+     * Reduce the final rule of a binarized production on a path [last state, symbol, state, intermediate symbol, first state].
+     *
+     * The packed intermediate symbol node is expanded to the RHS sequences of the production,
+     * and each sequence is reduced as a flat path. So the reduce actions, the predicates and
+     * the parse children are the same as without binarization. The expansion is iterative
+     * and reuses the parser buffers.
+     * Inner state nodes of a flat path aren't tracked by intermediate parses and are set to null.
+     *
+     * @param symbols reduced symbols
+     * @param reduction reduction to apply
+     * @param path path of the binarized reduction in the GSS
+     * @return true, if search for possible reductions path should be continued
+     */
+    boolean reduceBinarized(List<SymbolSpan> symbols, PendingReduction reduction, List<StackNode> path) {
+        int size = reduction.rule.production.rhs.size();
+
+        if(expandRHS.length < size) {
+            expandRHS = new SymbolNode[size];
+            expandNodes = new SymbolNode[size];
+            expandNext = new int[size];
+        }
+
+        // expandRHS[i] - node of the i-th RHS symbol, expandNodes[i] - intermediate node that covers rhs[0..i]
+        int top = size - 2;
+        expandRHS[size - 1] = (SymbolNode) path.get(1);
+        expandNodes[top] = (SymbolNode) path.get(3);
+        expandNext[top] = 0;
+        int index = top;
+
+        while(index <= top) {
+            if(index == 0) {
+                if(!reduceExpanded(symbols, reduction, path, size))
+                    return false;
+
+                index++;
+                continue;
+            }
+
+            // intermediate parse items are [left, right]
+            SymbolNode node = expandNodes[index];
+
+            if(expandNext[index] < node.parseChildren.size()) {
+                ParsingChildrenSet parse = node.parseChildren.get(expandNext[index]++);
+                expandRHS[index] = parse.items.get(1);
+                index--;
+
+                if(index == 0) {
+                    expandRHS[0] = parse.items.get(0);
+                } else {
+                    expandNodes[index] = parse.items.get(0);
+                    expandNext[index] = 0;
+                }
+            } else {
+                index++;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Reduce an expanded RHS sequence of a binarized production as a flat path
+     *
+     * @param symbols reduced symbols
+     * @param reduction reduction to apply
+     * @param path path of the binarized reduction in the GSS
+     * @param size RHS size
+     */
+    boolean reduceExpanded(List<SymbolSpan> symbols, PendingReduction reduction, List<StackNode> path, int size) {
+        expandPath.clear();
+        expandPath.add(path.get(0));
+
+        for(int i = size - 1; i >= 0; i--) {
+            if(i != size - 1)
+                expandPath.add(null);
+            expandPath.add(expandRHS[i]);
+        }
+
+        expandPath.add(path.get(path.size() - 1));
+
+        return reduceFlatPath(symbols, reduction, expandPath);
+    }
+
+    /**
+     * Reduce the rule on a path of the full rule RHS
+     *
+     * @param symbols reduced symbols
+     * @param reduction reduction to apply
+     * @param path path of the reduction
+     * @return true, if search for possible reductions path should be continued
+     */
+    boolean reduceFlatPath(List<SymbolSpan> symbols, PendingReduction reduction, List<StackNode> path) {
         reduceAttemptCount[reduction.rule.id]++;
+
+        if(profiler != null) {
+            profiler.attempt(reduction.rule.id);
+        }
+
         StateNode firstStateNode = (StateNode) path.get(path.size() - 1);
         int leftPart  = reduction.rule.lhs;
 
@@ -572,41 +1075,56 @@ public class GLRParser {
 		wordSymbolNodes++;
 
 		if(maxWordSymbolNodes > 0 && wordSymbolNodes >= maxWordSymbolNodes) {
-			logger.info(String.format("Max Symbol Node count (%d) reached for word reached", wordSymbolNodes));
+			logger.warn(String.format("Max Symbol Node count (%d) reached for word %d", wordSymbolNodes, reduction.currentPos));
+			wordLimitCount++;
 			pendingReductions.clear();
 			return false;
 		}
 
-        reduceSuccessCount[reduction.rule.id]++;
-
+		reductionCount++;
 
+		// check the budget periodically, as a single word could be expensive
+		if((reductionCount & 0xFF) == 0 && checkBudget(reduction.currentPos) == ParseBudget.Degradation.STOPPED) {
+			pendingReductions.clear();
+			return false;
+		}
 
-        // initializes  properties of the symbol node
-        SymbolNode symbolNode = new SymbolNode(newSpan);
-        symbolNode.children.add(firstStateNode);
+        reduceSuccessCount[reduction.rule.id]++;
 
+        if(profiler != null) {
+            profiler.success(reduction.rule.id);
+        }
 
 
         // ChildNodeNo  is the first node of the sequence nodes which should be reduced
-        GLRTable.SLRCell cell = table.getCell(firstStateNode.state, leftPart);
+        int gotoState = table.gotoState(table.cell(firstStateNode.state, leftPart));
+
+        StateNode newStateNode = createOrReuseStateNode(gotoState, reduction.currentPos, true);
 
-        StateNode newStateNode = createOrReuseStateNode(cell.gotoLine, reduction.currentPos, true);
 
+        SymbolNode newSymbolNode = hasPathOfLengthTwo(newStateNode, newSpan, firstStateNode);
+        boolean packed = newSymbolNode != null;
 
-        SymbolNode newSymbolNode = hasPathOfLengthTwo(newStateNode, symbolNode);
+        // no packing occurred, allocate and link new symbol node
+        if(!packed) {
+            newSymbolNode = gss.newSymbolNode(newSpan);
+            newSymbolNode.index = lastSymbolNodeId++;
+            newSymbolNode.addChild(firstStateNode);
+            newStateNode.addChild(newSymbolNode);
+            packingIndex.put(newStateNode, newSymbolNode, firstStateNode);
 
-		SymbolNode actualSymbolNode = newSymbolNode == null? symbolNode : newSymbolNode;
+            // a parse from the start node is reachable from the first RHS symbol only
+            newSymbolNode.minWord = firstStateNode == startNode? ((SymbolNode) path.get(path.size() - 2)).minWord : firstStateNode.minWord;
+            newStateNode.minWord = Math.min(newStateNode.minWord, newSymbolNode.minWord);
+        }
 
 		if(leftPart == grammar.start) {
-			roots.add(actualSymbolNode);
+			roots.add(newSymbolNode);
 		}
 
-		reductions.add(new PerformedReduction(reduction.rule, firstStateNode, reduction.lastStateNode, newStateNode, actualSymbolNode));
+		reductions.add(new PerformedReduction(reduction.rule, firstStateNode, reduction.lastStateNode, newStateNode, newSymbolNode));
 
-        if(newSymbolNode == null) {
-            symbolNode.index = lastSymbolNodeId++;
-            newSymbolNode = symbolNode;
-            newStateNode.children.add(newSymbolNode);
+        if(!packed) {
 
 		    /*
 			 * if NewNodeNo is not in activeStates, it means that it was already created before
@@ -621,11 +1139,12 @@ public class GLRParser {
                     if(symbol.symbol == -1)
                         continue;
 
-                    GLRTable.SLRCell c = table.getCell(cell.gotoLine, symbol.symbol);
-                    if(c == null)
+                    int c = table.cell(gotoState, symbol.symbol);
+                    if(c == -1)
                         continue;
 
-                    for(CompiledGrammar.Rule rule : c.reduceRules) {
+                    for(int r = table.reduceStart(c); r < table.reduceEnd(c); r++) {
+                        CompiledGrammar.Rule rule = grammar.rules[table.reduceRule(r)];
                         PendingReduction pendingReduction = new PendingReduction();
                         pendingReduction.rule = rule;
                         pendingReduction.symbolNode = newSymbolNode;
@@ -664,31 +1183,45 @@ public class GLRParser {
 
 
         Production p = reduction.rule.production;
-		TIntArrayList l = new TIntArrayList(path.size());
 
+		// lookup reduction cache
+		int cacheState = reductionCache.root(reduction.rule.id);
+		for(int i = path.size() - 2; i >= 0 && cacheState != -1; i -= 2) {
+			SymbolSpan sym = ((SymbolNode) path.get(i)).symbol;
+			cacheState = reductionCache.next(cacheState, sym.id);
+		}
 
-		for(int i = path.size() - 2; i >= 0; i -= 2) {
-			StackNode n = path.get(i);
-			SymbolSpan sym = ((SymbolNode) n).symbol;
-			l.add(sym.id);
-
+		if(cacheState != -1) {
+			SymbolSpan ssym = reductionCache.get(cacheState);
+			if(ssym != null) {
+				if(profiler != null) {
+					profiler.cacheHit(reduction.rule.id);
+				}
+
+				if(ssym == INVALID_SPAN)
+					return null;
+				reduceCacheHits++;
+				return ssym;
+			}
 		}
 
-		SymbolSpan ssym = (SymbolSpan) spanMaps[reduction.rule.id].get(l);
-		if(ssym != null) {
-			if(ssym == INVALID_SPAN)
-				return null;
-			reduceCacheHits++;
-			return ssym;
+		if(reduction.rule.intermediate()) {
+			return processIntermediate(reduction, path);
 		}
 
 		reduceRHS.clear();
 		int index = 0;
+		long predStart = profiler != null? System.nanoTime() : 0;
+
 		for(int i = path.size() - 2; i >= 0; i -= 2) {
 			StackNode n = path.get(i);
 			SymbolSpan sym = ((SymbolNode) n).symbol;
 
 			if(!predEval.eval(p.predIds.get(index), sym)) {
+				if(profiler != null) {
+					profiler.predTime(reduction.rule.id, System.nanoTime() - predStart);
+				}
+
 				return null;
 			}
 
@@ -697,6 +1230,10 @@ public class GLRParser {
 
 		}
 
+		if(profiler != null) {
+			profiler.predTime(reduction.rule.id, System.nanoTime() - predStart);
+		}
+
 
 		int leftPart  = reduction.rule.lhs;
 		String leftPartId = grammar.symbols.get(leftPart).id;
@@ -706,8 +1243,15 @@ public class GLRParser {
 		SymbolSpan symbol = new SymbolSpan(leftPart, leftPartId, -1, startOffset, endOffset, null, null, 0.0);
         symbol.head = reduceRHS.get(reduction.rule.production.rootIndex);
 
-        if(!grammar.actions[reduction.rule.id].execute(inputData.text, inputData.docFeats, reduction.rule, symbol, reduceRHS)) {
-			spanMaps[reduction.rule.id].put(l, INVALID_SPAN);
+        long actionStart = profiler != null? System.nanoTime() : 0;
+        boolean accepted = grammar.actions[reduction.rule.id].execute(inputData.text, inputData.docFeats, reduction.rule, symbol, reduceRHS);
+
+        if(profiler != null) {
+            profiler.actionTime(reduction.rule.id, System.nanoTime() - actionStart);
+        }
+
+        if(!accepted) {
+			reductionCache.put(cacheState(reduction, path), INVALID_SPAN);
 			return null;
 		}
 
@@ -726,33 +1270,70 @@ public class GLRParser {
 
 		reducerCacheMisses++;
 
-		spanMaps[reduction.rule.id].put(l, symbol);
+		reductionCache.put(cacheState(reduction, path), symbol);
 
 		return symbol;
 
     }
 
-    public SymbolNode hasPathOfLengthTwo(StateNode stateNode, SymbolNode betweenNode) {
+	/**
+	 * Process reduction of an intermediate rule of a binarized production.
+	 * Only the predicates of the reduced RHS symbols are checked, the reduce action is executed
+	 * by the final rule of the production on the whole RHS.
+	 *
+	 * Intermediate spans have no features, head and weight, so all intermediate parses
+	 * of the same RHS prefix are packed in a single symbol node
+	 */
+	SymbolSpan processIntermediate(PendingReduction reduction, List<StackNode> path) {
+		CompiledGrammar.Rule rule = reduction.rule;
+		SymbolSpan left = ((SymbolNode) path.get(3)).symbol;
+		SymbolSpan right = ((SymbolNode) path.get(1)).symbol;
 
+		long predStart = profiler != null? System.nanoTime() : 0;
+		boolean accepted = (rule.leftPred == -1 || predEval.eval(rule.leftPred, left))
+				&& predEval.eval(rule.rightPred, right);
 
-        StateNode targetNode = betweenNode.getChild(0);
+		if(profiler != null) {
+			profiler.predTime(rule.id, System.nanoTime() - predStart);
+		}
 
-        for(int j = 0; j < stateNode.childCount(); j++) {
-            SymbolNode symbolNode  = stateNode.getChild(j);
-			// TODO: заменить на equals?
-            if(betweenNode.symbol.start == symbolNode.symbol.start
-                    && betweenNode.symbol.end == symbolNode.symbol.end
-                    && betweenNode.symbol.symbol == symbolNode.symbol.symbol
-                    && betweenNode.symbol.head == symbolNode.symbol.head
-					&& betweenNode.symbol.weight == symbolNode.symbol.weight
-                    && symbolNode.children.contains(targetNode)
-                    && (betweenNode.symbol.features == symbolNode.symbol.features
-                        ||
-                        betweenNode.symbol.features.equals(symbolNode.symbol.features)))
-                return symbolNode;
-        }
+		if(!accepted)
+			return null;
+
+		SymbolSpan symbol = new SymbolSpan(rule.lhs, grammar.symbols.get(rule.lhs).id, inputData.lastSpanId++,
+				left.start, right.end, null, null, 1.0);
+
+		reducerCacheMisses++;
+		reductionCache.put(cacheState(reduction, path), symbol);
+
+		return symbol;
+	}
+
+	/**
+	 * Get (or create) reduction cache state for given reduction and path
+	 */
+	int cacheState(PendingReduction reduction, List<StackNode> path) {
+		int state = reductionCache.root(reduction.rule.id);
+		for(int i = path.size() - 2; i >= 0; i -= 2) {
+			SymbolSpan sym = ((SymbolNode) path.get(i)).symbol;
+			state = reductionCache.add(state, sym.id);
+		}
+
+		return state;
+	}
 
-        return null;
+    /**
+     * Find a symbol node for local ambiguity packing: a child of the state node
+     * that has the same symbol span and points to the target node.
+     * The state node must belong to the current word, as only its reductions are indexed
+     *
+     * @param stateNode state node
+     * @param span symbol span of the reduction
+     * @param targetNode first state node of the reduction
+     * @return existing symbol node, or null if there is no path of length two from stateNode to targetNode
+     */
+    public SymbolNode hasPathOfLengthTwo(StateNode stateNode, SymbolSpan span, StateNode targetNode) {
+        return packingIndex.get(stateNode, span, targetNode);
     }
 
     /**
@@ -764,10 +1345,17 @@ public class GLRParser {
      * @param addStart true, if a start state should be added to active prefixStates
      */
     public void parseSymbol(List<SymbolSpan> spans, List<StateNode> activeStates, int pos, boolean addStart) {
-
+        int wordRootsStart = roots.size();
         this.activeStates.clear();
+		packingIndex.clear();
+		reductionPaths.clear();
 		wordSymbolNodes = 0;
 
+		// reductions with the spans of this word as the last RHS symbol are performed only at this word
+		if(streaming) {
+			reductionCache.clear();
+		}
+
         if((activeStates == null || activeStates.isEmpty()) && !addStart)
             return;
 
@@ -792,11 +1380,29 @@ public class GLRParser {
             }
         }
 
+		// the greedy filter compacts the roots, the kept roots of this word stay at the end of the list
+		int wordRoots = roots.size() - wordRootsStart;
 		greedyFilter(pos);	// apply greedy filter, if possible
+		beamPrune(pos, Math.max(settledRoots, roots.size() - wordRoots));
 
-        shifter();
+        shifter(pos);
 		reductions.clear();	 // clear performed reductions
 
+		if(streaming || rootListener != null || !grammar.policies.isEmpty()) {
+			int frontier = frontier(pos);
+			int offset = frontier < inputData.wordCount()? inputData.wordOffsets.get(frontier) : Integer.MAX_VALUE;
+
+			if(streaming) {
+				releaseBehindFrontier(frontier);
+			}
+
+			if(rootListener != null) {
+				emitRoots(offset);
+			} else {
+				settleRoots(offset);
+			}
+		}
+
 
     }
 
@@ -865,32 +1471,84 @@ public class GLRParser {
      * Run parser on input data
      */
     public void parse() {
-        int pos = 0;
-
         List<SymbolSpan> spans = new ArrayList<>(inputData.size());
 
-        while(pos < inputData.wordStarts.size()) {
-            int start = inputData.wordStarts.get(pos);
-            int end = inputData.wordEnds.get(pos);
+        for(int pos = 0; pos < inputData.wordStarts.size(); pos++) {
+            if(!parseWord(pos, spans))
+                break;
+        }
 
-            List<StateNode> nodes = nodes4word.get(pos);
-            boolean hasStart = starts[pos];
+        finishParse();
+    }
 
-            if((nodes != null &&  !nodes.isEmpty()) || hasStart) {
-                spans.clear();
-                expandSpans(inputData.input, start, end, spans);
+    /**
+     * Finish the parse of the input: pass the rest of the roots to the listener, update the prefix filter stats
+     */
+    void finishParse() {
+        if(rootListener != null) {
+            emitRoots(Integer.MAX_VALUE);
+        }
 
-                if(pos != inputData.wordStarts.size() - 1)
-                    spans.add(eof);
+        for(SymbolNode root : roots) {
+            countRootStart(root);
+        }
 
-                parseSymbol(spans, nodes, pos, starts[pos]);
-            }
+        prefixWordCount = inputData.wordCount();
+        prefixStartCount = prefixScanner.startCount(prefixWordCount);
+        totalPrefixWordCount += prefixWordCount;
+        totalPrefixStartCount += prefixStartCount;
+        totalRootStartCount += rootStarts.cardinality();
+
+        if(profiler != null) {
+            profiler.document(inputData.wordCount(), lastStateNodeId, lastSymbolNodeId);
+        }
+
+        if(logger.isDebugEnabled()) {
+            logger.debug(String.format("Prefix filter: %d of %d words allowed as parse starts, %d root starts",
+                    prefixStartCount, prefixWordCount, rootStarts.cardinality()));
+        }
+    }
+
+    /**
+     * Mark the start word of a root for the prefix filter stats
+     */
+    void countRootStart(SymbolNode root) {
+        int index = inputData.inputIndex(root.symbol.start);
 
-            pos++;
+        if(index < inputData.size()) {
+            rootStarts.set(inputData.words[index]);
         }
+    }
+
+    /**
+     * Parse word position
+     *
+     * @param pos word position
+     * @param spans buffer for the word spans
+     * @return false, if parsing is stopped by the budget
+     */
+    boolean parseWord(int pos, List<SymbolSpan> spans) {
+        int start = inputData.wordStarts.get(pos);
+        int end = inputData.wordEnds.get(pos);
 
+        List<StateNode> nodes = nodes4word.get(pos);
+        if(checkBudget(pos) == ParseBudget.Degradation.STOPPED)
+            return false;
 
+        // no new parses in degraded mode
+        boolean hasStart = prefixScanner.isStart(pos) && degradation == ParseBudget.Degradation.NONE;
 
+        if((nodes != null &&  !nodes.isEmpty()) || hasStart) {
+            spans.clear();
+            expandSpans(inputData.input, start, end, spans);
+
+            if(pos != inputData.wordStarts.size() - 1)
+                spans.add(eof);
+
+            parseSymbol(spans, nodes, pos, hasStart);
+        }
+
+        return true;
     }
 
     /**
@@ -935,6 +1593,37 @@ public class GLRParser {
         }
     }
 
+    /**
+     * Check the parse budget and degrade the parse mode, if the budget is exceeded
+     *
+     * @param pos current word position
+     * @return current degradation level
+     */
+    ParseBudget.Degradation checkBudget(int pos) {
+        if(degradation == ParseBudget.Degradation.STOPPED || budget.isUnlimited())
+            return degradation;
+
+        long now = System.currentTimeMillis();
+        int nodes = gss.liveNodeCount();
+
+        if(degradation == ParseBudget.Degradation.NONE && budget.exceeded(parseStartTime, now, nodes, reductionCount, 1)) {
+            degradation = ParseBudget.Degradation.NO_NEW_STARTS;
+            degradationPos = pos;
+            degradedBeamWidth = budget.getBeamWidth();
+            logger.warn(String.format("Parse budget exceeded at word %d (%d GSS nodes, %d reductions, %d ms), no new parses are started",
+                    pos, nodes, reductionCount, now - parseStartTime));
+        }
+
+        if(degradation == ParseBudget.Degradation.NO_NEW_STARTS && budget.exceeded(parseStartTime, now, nodes, reductionCount, 2)) {
+            degradation = ParseBudget.Degradation.STOPPED;
+            degradationPos = pos;
+            logger.warn(String.format("Parse budget exceeded twice at word %d (%d GSS nodes, %d reductions, %d ms), parsing stopped",
+                    pos, nodes, reductionCount, now - parseStartTime));
+        }
+
+        return degradation;
+    }
+
     /**
      * Clear parser state
      */
@@ -945,24 +1634,239 @@ public class GLRParser {
         activeStates.clear();
         reducePath.clear();
         inputData = null;
-        synthCache = null;
-        starts = null;
+        prefixScanner.reset();
+        wordSpans.clear();
         roots.clear();
+        settledRoots = 0;
 		reduceRHS.clear();
         maxWordState = 0;
-        nodes4word.clear();
 
+        // keep the lists for the next parse, clear only the used ones
+        for(int i = 0; i < usedWordLists; i++) {
+            List<StateNode> nodes = nodes4word.get(i);
 
-		for(int i = 0; i < spanMaps.length; i++) {
-			spanMaps[i] = new HashMap();
-		}
+            if(nodes == null) {
+                nodes4word.set(i, new ArrayList<StateNode>(128));
+            } else {
+                nodes.clear();
+            }
+        }
+
+        usedWordLists = 0;
+        gss.reset();
+		stateNodeIndex.clear();
+		packingIndex.clear();
+		reductionPaths.clear();
+		reductionCache.clear();
 
     }
 
+	/**
+	 * Compute the parse frontier after the shifts from a word position.
+	 *
+	 * The frontier is the min word reachable from the state nodes of the next words,
+	 * all further reductions start at the frontier or later.
+	 *
+	 * @param pos current word position, all shifts from the word are performed
+	 */
+	int frontier(int pos) {
+		int frontier = pos + 1;
+
+		for(int word = pos + 1; word <= maxWordState; word++) {
+			for(StateNode node : nodes4word.get(word)) {
+				frontier = Math.min(frontier, node.minWord);
+			}
+		}
+
+		return frontier;
+	}
+
+	/**
+	 * Streaming mode: release GSS nodes behind the parse frontier.
+	 *
+	 * State nodes of words before the frontier and their symbol children can't take part in any further
+	 * reduction, so their arena slots and edges are recycled. Released symbol nodes are detached from the arena,
+	 * so the roots and the parse trees that reference them remain valid.
+	 *
+	 * @param frontier parse frontier word
+	 */
+	void releaseBehindFrontier(int frontier) {
+		if(frontier <= releasedWords)
+			return;
+
+		for(int word = releasedWords; word < frontier; word++) {
+			List<StateNode> nodes = nodes4word.get(word);
+
+			for(StateNode node : nodes) {
+				for(int i = 0; i < node.childCount(); i++) {
+					gss.releaseSymbolNode(node.getChild(i));
+				}
+
+				gss.releaseStateNode(node);
+			}
+
+			nodes4word.set(word, null);
+		}
+
+		releasedWords = frontier;
+
+		// drop released nodes from the index
+		stateNodeIndex.clear();
+
+		for(int word = frontier; word <= maxWordState; word++) {
+			for(StateNode node : nodes4word.get(word)) {
+				stateNodeIndex.put(word, node);
+			}
+		}
+	}
+
+	/**
+	 * Pass finalized roots to the root listener and remove them from the roots list
+	 *
+	 * @param offset frontier offset, roots that end at or before it are finalized
+	 */
+	void emitRoots(int offset) {
+		int kept = 0;
+
+		for(int i = 0; i < roots.size(); i++) {
+			SymbolNode root = roots.get(i);
+
+			if(root.symbol.end <= offset) {
+				countRootStart(root);
+				rootListener.root(this, root);
+				emittedRootCount++;
+			} else {
+				roots.set(kept++, root);
+			}
+		}
+
+		roots.subList(kept, roots.size()).clear();
+	}
+
+	/**
+	 * Beam pruning of the symbol nodes of current word.
+	 *
+	 * Non-terminal children of each state node of the word are grouped by symbol. As the state node
+	 * is unique for (word, state), the group is a (state, symbol) group of the word. In a group only
+	 * the top beamWidth nodes by weight and the nodes with weight not less than beamRatio * best weight
+	 * are kept. Pruned nodes are removed from the GSS and from the roots, so they are not continued
+	 * by the shifter. Parses that already use pruned nodes are kept.
+	 *
+	 * Terminals and intermediate symbols of binarized rules are never pruned.
+	 *
+	 * @param pos current word position
+	 * @param wordRootsStart index of the roots list, all roots created at this word are at or after it
+	 */
+	void beamPrune(int pos, int wordRootsStart) {
+		int width = beamWidth;
+
+		if(degradedBeamWidth > 0) {
+			width = width > 0? Math.min(width, degradedBeamWidth) : degradedBeamWidth;
+		}
+
+		if(width <= 0 && beamRatio <= 0)
+			return;
+
+		beamPruned.clear();
+
+		for(StateNode node : nodes4word.get(pos)) {
+			if(node.childCount() < 2)
+				continue;
+
+			beamNodes.clear();
+
+			for(int i = 0; i < node.childCount(); i++) {
+				SymbolNode child = node.getChild(i);
+				int sym = child.symbol.symbol;
+
+				if(grammar.isNT(sym) && !grammar.isIntermediate(sym)) {
+					beamNodes.add(child);
+				}
+			}
+
+			if(beamNodes.size() < 2)
+				continue;
+
+			Collections.sort(beamNodes, BEAM_ORDER);
+
+			int groupStart = 0;
+			int pruned = 0;
+
+			for(int i = 0; i < beamNodes.size(); i++) {
+				SymbolNode n = beamNodes.get(i);
+
+				if(n.symbol.symbol != beamNodes.get(groupStart).symbol.symbol) {
+					groupStart = i;
+				}
+
+				double best = beamNodes.get(groupStart).symbol.weight;
+
+				if((width > 0 && i - groupStart >= width) || (beamRatio > 0 && n.symbol.weight < best * beamRatio)) {
+					beamPruned.add(n.slot);
+					pruned++;
+				}
+			}
+
+			if(pruned == 0)
+				continue;
+
+			int kept = 0;
+			for(int i = 0; i < node.childCount(); i++) {
+				SymbolNode child = node.getChild(i);
+				if(!beamPruned.contains(child.slot)) {
+					node.setChild(kept++, child);
+				}
+			}
+
+			node.truncateChildren(kept);
+			beamPrunedCount += pruned;
+		}
+
+		if(beamPruned.isEmpty())
+			return;
+
+		// remove pruned roots
+		int kept = wordRootsStart;
+		for(int i = wordRootsStart; i < roots.size(); i++) {
+			SymbolNode root = roots.get(i);
+			if(!beamPruned.contains(root.slot)) {
+				roots.set(kept++, root);
+			}
+		}
+
+		while(roots.size() > kept) {
+			roots.remove(roots.size() - 1);
+		}
+
+		// remove shifts from state nodes without children
+		kept = 0;
+		for(int i = 0; i < pendingShifts.size(); i++) {
+			PendingShift shift = pendingShifts.get(i);
+			if(shift.stateNode == startNode || shift.stateNode.childCount() > 0) {
+				pendingShifts.set(kept++, shift);
+			}
+		}
+
+		while(pendingShifts.size() > kept) {
+			pendingShifts.remove(pendingShifts.size() - 1);
+		}
+	}
+
 	// filter greedy filtering pending shifts
 	public void greedyFilter(int currentPos) {
-		GreedyFilter filter = new GreedyFilter(this, currentPos);
-		filter.filter();
+		if(!grammar.policies.isEmpty()) {
+			greedy.filter(currentPos);
+		}
+	}
+
+	/**
+	 * Advance the settled roots boundary: roots that end before the parse frontier offset
+	 * can't be affected by further greedy reductions
+	 */
+	void settleRoots(int offset) {
+		while(settledRoots < roots.size() && roots.get(settledRoots).symbol.end <= offset) {
+			settledRoots++;
+		}
 	}
 
 }
@@ -2,6 +2,7 @@ package name.kazennikov.glorie;
 
 import gnu.trove.iterator.TIntIterator;
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
 import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.set.TIntSet;
 import org.apache.log4j.Logger;
@@ -15,7 +16,7 @@ import java.util.List;
 import java.util.Set;
 
 /**
- * GLR Table. Built on top of SLR table algorithm
+ * GLR Table. Built on top of SLR table algorithm, or LALR(1) if enabled by the grammar option 'table = lalr'
  */
 public class GLRTable {
     private static final Logger logger = Logger.getLogger(GLRTable.class);
@@ -38,6 +39,12 @@ public class GLRTable {
     int[] checkState;
     int[] checkSyms;
 
+    // flat action table, parallel to checkState/checkSyms
+    int[] shiftState;       // shift target state, -1 if none
+    int[] gotoState;        // goto target state, -1 if none
+    int[] reduceStart;      // reduce rules of the cell are reduceRuleIds[reduceStart[cell]..reduceStart[cell + 1])
+    int[] reduceRuleIds;    // reduce rule ids of all cells
+
     final int lineSize;
     int stateCount;
     TIntObjectHashMap<SLRCell> cells;
@@ -88,11 +95,25 @@ public class GLRTable {
         LRItems items = new LRItems(g);
         items.compute();
 
+        LALRLookaheads lalr = null;
+
+        if(g.grammar.useLALR) {
+            lalr = new LALRLookaheads(g, items);
+            lalr.compute();
+        }
+
+        // reduce entry and conflict counts, SLR vs actual table
+        int slrReduceCount = 0;
+        int reduceCount = 0;
+        int slrConflictCount = 0;
+        int conflictCount = 0;
+
         cells = new TIntObjectHashMap<>();
         stateCount = items.itemSets.size();
 
         for(int i = 0;  i<items.itemSets.size(); i++) {
             Set<LRItems.LRItem> itemSet = items.itemSets.get(i);
+            TIntIntHashMap slrActions = new TIntIntHashMap();
 
             for(LRItems.LRItem item : itemSet) {
                 // "For terminal a, if A->X.aY in Ii and goto(Ii,a) = Ij, then set action[i,a] to shift j"
@@ -105,6 +126,7 @@ public class GLRTable {
                         if(c.gotoLine != nextState) {
                             c.gotoLine = nextState;
                             c.shift = true;
+                            slrActions.adjustOrPutValue(s, 1, 1);
                         }
                     }
                 }
@@ -112,8 +134,23 @@ public class GLRTable {
                 // if A->X. is in Ii and A != S',  for all terminals  a in Follow(A) set action [i,a]
                 // to  reduce A->X
                 // "and A != S'"
+                // (for LALR table, only for terminals in LA(Ii, A->X) )
                 if(items.isFinished(item) && g.rules[item.rule].lhs != g.lrStart) {
-                    TIntIterator it = follow[g.rules[item.rule].lhs].iterator();
+                    TIntSet la = follow[g.rules[item.rule].lhs];
+                    slrReduceCount += la.size();
+
+                    TIntIterator slrIt = la.iterator();
+                    while(slrIt.hasNext()) {
+                        slrActions.adjustOrPutValue(slrIt.next(), 1, 1);
+                    }
+
+                    if(lalr != null) {
+                        la = lalr.lookahead(i, item.rule);
+                    }
+
+                    reduceCount += la.size();
+
+                    TIntIterator it = la.iterator();
                     while(it.hasNext()) {
                         int cId = it.next();
                         SLRCell c = getCellHashed(i, cId);
@@ -122,6 +159,17 @@ public class GLRTable {
                 }
             }
 
+            for(int count : slrActions.values()) {
+                if(count > 1)
+                    slrConflictCount++;
+            }
+
+            for(int s : slrActions.keys()) {
+                SLRCell c = cells.get(index(i, s));
+                if(c != null && c.reduceRules.size() + (c.shift? 1 : 0) > 1)
+                    conflictCount++;
+            }
+
             //  going  through non-terminal symbols, initializing GOTO table  for non terminals
             for(int s  = 0; s <  g.symbols.size(); s++) {
                 if(!g.isNT(s))
@@ -136,6 +184,14 @@ public class GLRTable {
 
         buildTable();
 
+        if(lalr != null) {
+            logger.info(String.format("LALR(1) table: %d reduce entries (SLR: %d, removed %d), %d conflict cells (SLR: %d, removed %d)",
+                    reduceCount, slrReduceCount, slrReduceCount - reduceCount,
+                    conflictCount, slrConflictCount, slrConflictCount - conflictCount));
+        } else {
+            logger.info(String.format("SLR table: %d reduce entries, %d conflict cells", reduceCount, conflictCount));
+        }
+
 
         logger.info(String.format("GLR table: %dx%d (total %d cells), %d non-empty, double array table: %d",
                 items.itemSets.size(), g.symbols.size(),
@@ -242,11 +298,98 @@ public class GLRTable {
         this.table = table.toArray(new SLRCell[table.size()]);
         this.checkState = tableStates.toArray();
         this.checkSyms = tableSyms.toArray();
+        buildActions();
 
         logger.info(String.format("Fitted table size: %d, cells: %d", table.size(), cells.size()));
     }
 
 
+    /**
+     * Build flat action arrays from the packed table cells
+     */
+    protected void buildActions() {
+        shiftState = new int[table.length];
+        gotoState = new int[table.length];
+        reduceStart = new int[table.length + 1];
+        TIntArrayList rules = new TIntArrayList();
+
+        for(int i = 0; i < table.length; i++) {
+            SLRCell c = table[i];
+            reduceStart[i] = rules.size();
+            shiftState[i] = -1;
+            gotoState[i] = -1;
+
+            if(c == null)
+                continue;
+
+            gotoState[i] = c.gotoLine;
+
+            if(c.shift) {
+                shiftState[i] = c.gotoLine;
+            }
+
+            for(CompiledGrammar.Rule r : c.reduceRules) {
+                rules.add(r.id);
+            }
+        }
+
+        reduceStart[table.length] = rules.size();
+        reduceRuleIds = rules.toArray();
+    }
+
+    /**
+     * Get cell of the flat action table
+     * @param state LR state
+     * @param sym symbol
+     * @return cell index, or -1 if the cell is empty
+     */
+    public int cell(int state, int sym) {
+        int offset = stateIndex[state] + sym;
+
+        if(offset >= checkState.length)
+            return -1;
+
+        if(checkState[offset] != state || checkSyms[offset] != sym)
+            return -1;
+
+        return offset;
+    }
+
+    /**
+     * Shift target state of the cell, -1 if there is no shift action
+     */
+    public int shiftState(int cell) {
+        return shiftState[cell];
+    }
+
+    /**
+     * Goto target state of the cell, -1 if none
+     */
+    public int gotoState(int cell) {
+        return gotoState[cell];
+    }
+
+    /**
+     * Start of reduce rules range of the cell
+     */
+    public int reduceStart(int cell) {
+        return reduceStart[cell];
+    }
+
+    /**
+     * End (exclusive) of reduce rules range of the cell
+     */
+    public int reduceEnd(int cell) {
+        return reduceStart[cell + 1];
+    }
+
+    /**
+     * Reduce rule id from the reduce rules range
+     */
+    public int reduceRule(int index) {
+        return reduceRuleIds[index];
+    }
+
     public SLRCell getCell(int state, int sym) {
         int offset = stateIndex[state] + sym;
 
@@ -359,6 +502,10 @@ public class GLRTable {
         dest.stateIndex = stateIndex;
         dest.checkState = checkState;
         dest.checkSyms = checkSyms;
+        dest.shiftState = shiftState;
+        dest.gotoState = gotoState;
+        dest.reduceStart = reduceStart;
+        dest.reduceRuleIds = reduceRuleIds;
         dest.stateCount = stateCount;
         dest.cells = cells;
     }
@@ -0,0 +1,297 @@
+package name.kazennikov.glorie;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+
+/**
+ * Arena storage of the Graph Structured Stack.
+ *
+ * State and symbol nodes are allocated in slots of the arena. The edges of the GSS are stored
+ * as slot indexes in primitive int arrays, so a node doesn't hold any child list object.
+ * StateNode and SymbolNode objects are thin views over the arena slots.
+ *
+ * The arena is reset, not reallocated between parses: the edge arrays and the node views
+ * are reused by the next parse. In the streaming mode, the parser releases nodes behind the parse
+ * frontier during the parse, their slots are recycled by subsequent allocations.
+ *
+ * @author Anton Kazennikov
+ */
+public class GSSArena {
+
+    /**
+     * Growable per-slot int segments stored in a single int array.
+     *
+     * Each slot owns a segment [offset, offset + capacity) of the data array. Segment capacities
+     * are powers of two. When a segment is full it's extended in place (if it's the last one) or
+     * moved to a segment of doubled capacity. Freed segments are kept in per-capacity free lists.
+     */
+    public static class Edges {
+        int[] data = new int[1024];
+        int top;
+
+        int[] offset = new int[256];
+        int[] size = new int[256];
+        int[] capacity = new int[256];
+
+        // free[i] - offsets of free segments of capacity 1 << i
+        TIntArrayList[] free = new TIntArrayList[32];
+
+        /**
+         * Initialize empty segment for the slot
+         * @param slot slot index
+         */
+        public void init(int slot) {
+            if(slot >= offset.length) {
+                int newSize = Math.max(offset.length * 2, slot + 1);
+                offset = Arrays.copyOf(offset, newSize);
+                size = Arrays.copyOf(size, newSize);
+                capacity = Arrays.copyOf(capacity, newSize);
+            }
+
+            offset[slot] = -1;
+            size[slot] = 0;
+            capacity[slot] = 0;
+        }
+
+        private int allocate(int cap) {
+            int sizeClass = Integer.numberOfTrailingZeros(cap);
+            TIntArrayList l = free[sizeClass];
+
+            if(l != null && !l.isEmpty()) {
+                return l.removeAt(l.size() - 1);
+            }
+
+            ensureData(top + cap);
+            int off = top;
+            top += cap;
+            return off;
+        }
+
+        private void ensureData(int newTop) {
+            if(newTop > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, newTop));
+            }
+        }
+
+        private void free(int off, int cap) {
+            if(cap == 0)
+                return;
+
+            int sizeClass = Integer.numberOfTrailingZeros(cap);
+            if(free[sizeClass] == null) {
+                free[sizeClass] = new TIntArrayList();
+            }
+
+            free[sizeClass].add(off);
+        }
+
+        /**
+         * Append value to the slot segment
+         */
+        public void add(int slot, int value) {
+            int cap = capacity[slot];
+
+            if(size[slot] == cap) {
+                int newCap = cap == 0? 2 : cap * 2;
+                int off = offset[slot];
+
+                // the last segment in the arena, extend it in place
+                if(cap != 0 && off + cap == top) {
+                    ensureData(off + newCap);
+                    top = off + newCap;
+                } else {
+                    int newOff = allocate(newCap);
+                    if(cap != 0) {
+                        System.arraycopy(data, off, data, newOff, size[slot]);
+                        free(off, cap);
+                    }
+                    offset[slot] = newOff;
+                }
+
+                capacity[slot] = newCap;
+            }
+
+            data[offset[slot] + size[slot]] = value;
+            size[slot]++;
+        }
+
+        public int get(int slot, int index) {
+            return data[offset[slot] + index];
+        }
+
+        public void set(int slot, int index, int value) {
+            data[offset[slot] + index] = value;
+        }
+
+        public int size(int slot) {
+            return size[slot];
+        }
+
+        public boolean contains(int slot, int value) {
+            int off = offset[slot];
+            int end = off + size[slot];
+
+            for(int i = off; i < end; i++) {
+                if(data[i] == value)
+                    return true;
+            }
+
+            return false;
+        }
+
+        /**
+         * Truncate the slot segment to given size
+         */
+        public void truncate(int slot, int newSize) {
+            if(newSize < size[slot]) {
+                size[slot] = newSize;
+            }
+        }
+
+        /**
+         * Return slot segment to the free lists
+         */
+        public void release(int slot) {
+            free(offset[slot], capacity[slot]);
+            offset[slot] = -1;
+            size[slot] = 0;
+            capacity[slot] = 0;
+        }
+
+        /**
+         * Drop all segments
+         */
+        public void reset() {
+            top = 0;
+            for(TIntArrayList l : free) {
+                if(l != null) {
+                    l.resetQuick();
+                }
+            }
+        }
+    }
+
+    StateNode[] stateNodes = new StateNode[256];
+    int stateNodeCount;
+
+    SymbolNode[] symbolNodes = new SymbolNode[256];
+    int symbolNodeCount;
+
+    // released slots, reused by allocations
+    final TIntArrayList freeStateSlots = new TIntArrayList();
+    final TIntArrayList freeSymbolSlots = new TIntArrayList();
+    int releasedCount;
+
+    // state node slot -> child symbol node slots
+    final Edges stateEdges = new Edges();
+
+    // symbol node slot -> child state node slots
+    final Edges symbolEdges = new Edges();
+
+
+    /**
+     * Allocate a new state node
+     * @param state LR state of the node
+     */
+    public StateNode newStateNode(int state) {
+        int slot = freeStateSlots.isEmpty()? stateNodeCount++ : freeStateSlots.removeAt(freeStateSlots.size() - 1);
+
+        if(slot >= stateNodes.length) {
+            stateNodes = Arrays.copyOf(stateNodes, stateNodes.length * 2);
+        }
+
+        StateNode node = stateNodes[slot];
+
+        if(node == null) {
+            node = new StateNode(this, slot);
+            stateNodes[slot] = node;
+        }
+
+        node.init(state);
+        stateEdges.init(slot);
+        return node;
+    }
+
+    /**
+     * Allocate a new symbol node
+     * @param symbol symbol span of the node
+     */
+    public SymbolNode newSymbolNode(SymbolSpan symbol) {
+        int slot = freeSymbolSlots.isEmpty()? symbolNodeCount++ : freeSymbolSlots.removeAt(freeSymbolSlots.size() - 1);
+
+        if(slot >= symbolNodes.length) {
+            symbolNodes = Arrays.copyOf(symbolNodes, symbolNodes.length * 2);
+        }
+
+        SymbolNode node = symbolNodes[slot];
+
+        if(node == null) {
+            node = new SymbolNode(this, slot);
+            symbolNodes[slot] = node;
+        }
+
+        node.init(symbol);
+        symbolEdges.init(slot);
+        return node;
+    }
+
+    /**
+     * Release a state node. The slot and the edges are recycled, the view object is reused
+     * by the next allocation of the slot
+     */
+    public void releaseStateNode(StateNode node) {
+        stateEdges.release(node.slot);
+        freeStateSlots.add(node.slot);
+        releasedCount++;
+    }
+
+    /**
+     * Release a symbol node. The slot and the edges are recycled, but the view object is detached
+     * from the arena, so parse trees that reference the node remain valid. The view must not be used
+     * for GSS traversal after the release
+     */
+    public void releaseSymbolNode(SymbolNode node) {
+        symbolEdges.release(node.slot);
+        symbolNodes[node.slot] = null;
+        node.released = true;
+        freeSymbolSlots.add(node.slot);
+        releasedCount++;
+    }
+
+    public int stateNodeCount() {
+        return stateNodeCount;
+    }
+
+    public int symbolNodeCount() {
+        return symbolNodeCount;
+    }
+
+    /**
+     * Number of nodes allocated in the arena, excluding released ones
+     */
+    public int liveNodeCount() {
+        return stateNodeCount + symbolNodeCount - freeStateSlots.size() - freeSymbolSlots.size();
+    }
+
+    /**
+     * Number of released nodes since the last reset
+     */
+    public int releasedCount() {
+        return releasedCount;
+    }
+
+    /**
+     * Reset the arena. All allocated nodes become invalid, their view objects are reused
+     * by subsequent allocations.
+     */
+    public void reset() {
+        stateNodeCount = 0;
+        symbolNodeCount = 0;
+        releasedCount = 0;
+        freeStateSlots.resetQuick();
+        freeSymbolSlots.resetQuick();
+        stateEdges.reset();
+        symbolEdges.reset();
+    }
+}
@@ -0,0 +1,152 @@
+package name.kazennikov.glorie;
+
+import gate.FeatureMap;
+import gate.util.SimpleFeatureMapImpl;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Core parsing API over plain text and input spans, without GATE documents.
+ *
+ * The engine owns a compiled grammar and a parser. Results of a parse are the root nodes of the parser,
+ * they and their parse trees are valid until the next parse or clear(), as the GSS nodes are recycled.
+ * The engine isn't thread-safe, use copy() to get an engine per thread.
+ */
+public class GlorieEngine {
+    final CompiledGrammar grammar;
+    final GLRTable table;
+    final GLRParser parser;
+    boolean parsed;     // the parser holds a parse
+
+    /**
+     * Create engine of a grammar, builds the GLR table
+     */
+    public GlorieEngine(CompiledGrammar grammar) {
+        this.grammar = grammar;
+        this.table = new GLRTable(grammar);
+        this.table.buildGLRTable();
+        this.parser = new GLRParser(table);
+    }
+
+    /**
+     * Create engine of a built GLR table
+     */
+    public GlorieEngine(GLRTable table) {
+        this.grammar = table.g;
+        this.table = table;
+        this.parser = new GLRParser(table);
+    }
+
+    /**
+     * Compile grammar file into an engine. The grammar is compiled by {@link GrammarCompiler},
+     * no GATE resources or documents are created
+     *
+     * @param grammarURL grammar file URL
+     */
+    public static GlorieEngine compile(URL grammarURL) throws Exception {
+        return new GlorieEngine(new GrammarCompiler(new File(grammarURL.toURI())).compile());
+    }
+
+    /**
+     * Copy engine for use in other thread. The copy has own grammar actions, table and parser,
+     * and the same parser settings. If profiling is enabled, the copy gets its own profiler,
+     * use {@link ParseProfiler#merge(ParseProfiler)} to aggregate the profiles. The root listener
+     * is shared by the copies, so it must be thread-safe
+     */
+    public GlorieEngine copy() throws Exception {
+        CompiledGrammar g = grammar.copy();
+        GLRTable t = new GLRTable(g);
+        table.copy(t);
+
+        GlorieEngine copy = new GlorieEngine(t);
+        GLRParser p = copy.parser;
+        p.setBudget(parser.getBudget());
+        p.setMaxWordSymbolNodes(parser.getMaxWordSymbolNodes());
+        p.setHybrid(parser.isHybrid());
+        p.setStreaming(parser.isStreaming());
+        p.setBeamWidth(parser.getBeamWidth());
+        p.setBeamRatio(parser.getBeamRatio());
+        p.setRootListener(parser.getRootListener());
+        p.reductionPaths.setMaxSize(parser.reductionPaths.getMaxSize());
+
+        if(parser.getProfiler() != null) {
+            p.setProfiler(new ParseProfiler(g));
+        }
+
+        return copy;
+    }
+
+    /**
+     * Parse text
+     *
+     * @param text document text
+     * @param docFeatures document features, could be null
+     * @param spans input spans source
+     * @return root nodes, valid until the next parse or clear()
+     */
+    public List<SymbolNode> parse(CharSequence text, Map<?, ?> docFeatures, SpanSource spans) {
+        return parse(text, docFeatures, spans.spans(grammar));
+    }
+
+    /**
+     * Parse text
+     *
+     * @param text document text
+     * @param docFeatures document features, could be null
+     * @param spans input spans with resolved terminal symbols, the list isn't modified
+     * @return root nodes, valid until the next parse or clear()
+     */
+    public List<SymbolNode> parse(CharSequence text, Map<?, ?> docFeatures, List<SymbolSpan> spans) {
+        clear();
+        List<SymbolSpan> sorted = new ArrayList<>(spans);
+        Collections.sort(sorted, SymbolSpan.COMPARATOR);
+
+        List<SymbolSpan> input = grammar.pre.exec(sorted);
+        parser.init(new InputData(text, featureMap(docFeatures), input));
+        parsed = true;
+        parser.parse();
+
+        return parser.roots;
+    }
+
+    /**
+     * Release the last parse
+     */
+    public void clear() {
+        if(!parsed)
+            return;
+
+        parser.clear();
+        parsed = false;
+    }
+
+    static FeatureMap featureMap(Map<?, ?> features) {
+        if(features instanceof FeatureMap)
+            return (FeatureMap) features;
+
+        FeatureMap fm = new SimpleFeatureMapImpl();
+
+        if(features != null) {
+            fm.putAll(features);
+        }
+
+        return fm;
+    }
+
+    public CompiledGrammar getGrammar() {
+        return grammar;
+    }
+
+    public GLRTable getTable() {
+        return table;
+    }
+
+    public GLRParser getParser() {
+        return parser;
+    }
+}
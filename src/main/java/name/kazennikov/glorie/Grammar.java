@@ -63,6 +63,14 @@ public class Grammar {
 
     boolean useWeights = true; // enable production weighting, if false then all nonterminal weights are 1.0 even if assigned in reduce actions
     boolean useGreedy = true; // allow greedy productions
+    boolean binarize = false; // binarize long productions (BRNGLR engine mode)
+    boolean useLALR = false; // build LALR(1) parsing table instead of SLR
+    boolean hybrid = false; // deterministic reductions on linear GSS segments
+    boolean streaming = false; // release GSS nodes and caches behind the parse frontier
+    int prefixLength = 3; // length of the prefix filter of parse starts
+    boolean autoPrefix = false; // select the prefix length by the prefix FSA size and a document sample
+    int beamWidth = 0; // beam mode: max number of symbol nodes per (state, symbol) at a word, 0 - unlimited
+    double beamRatio = 0.0; // beam mode: min ratio of node weight to the best weight per (state, symbol), 0 - unlimited
 
 
 
@@ -0,0 +1,223 @@
+package name.kazennikov.glorie;
+
+import com.google.common.io.Files;
+import groovy.lang.GroovyClassLoader;
+import groovy.lang.Script;
+import name.kazennikov.glorie.groovy.ClassloaderBuilder;
+import name.kazennikov.glorie.groovy.SimpleASTCustomizer;
+import org.antlr.v4.runtime.ANTLRInputStream;
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+import org.apache.log4j.Logger;
+import org.codehaus.groovy.control.CompilerConfiguration;
+
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.Charset;
+
+/**
+ * Compiler of a grammar file into a {@link CompiledGrammar}.
+ *
+ * Parses the grammar source, builds the Groovy class loader and the parser context,
+ * rewrites the grammar and compiles its actions. The GLR table isn't built.
+ * Used by both {@link GLRAnalyser} and {@link GlorieEngine}.
+ */
+public class GrammarCompiler {
+    private static final Logger logger = Logger.getLogger(GrammarCompiler.class);
+
+    final File grammarFile;
+    ParserContext parserContext;
+    CompilerConfiguration cc;
+    GroovyClassLoader classLoader;
+
+    public GrammarCompiler(File grammarFile) {
+        this.grammarFile = grammarFile;
+    }
+
+    /**
+     * Compile the grammar file
+     */
+    public CompiledGrammar compile() throws Exception {
+        return compile(Files.toString(grammarFile, Charset.forName("UTF-8")));
+    }
+
+    /**
+     * Compile grammar source. The Groovy class path and the grammar URL are resolved
+     * relative to the grammar file
+     *
+     * @param src grammar source
+     */
+    public CompiledGrammar compile(String src) throws Exception {
+        ParseTree parseTree = parseAST(src);
+
+        ClassloaderBuilder clBuilder = new ClassloaderBuilder();
+        clBuilder.addClassPath(new File(grammarFile.getAbsoluteFile().getParent(), "groovy").getAbsolutePath());
+        clBuilder.visit(parseTree);
+        clBuilder.build();
+        cc = clBuilder.cc();
+        classLoader = clBuilder.classloader();
+
+        parserContext = initParserContext(parseTree);
+
+        if(parserContext.astTransformation() != null) {
+            cc.addCompilationCustomizers(new SimpleASTCustomizer(parserContext.astTransformation()));
+        }
+
+        return parseGrammar(src, parseTree);
+    }
+
+    private ParserContext initParserContext(ParseTree pt) throws Exception {
+        if(parserContext != null) {
+            logger.info(String.format("Using predefined parser context: %s", parserContext.getClass().getName()));
+            return parserContext;
+        }
+
+        ParserContextClassNameVisitor cnVisitor = new ParserContextClassNameVisitor();
+
+        String parserContextClassName = cnVisitor.visit(pt);
+
+
+        if(parserContextClassName == null || parserContextClassName.isEmpty()) {
+            return new BasicParserContext();
+        }
+
+        try {
+            Class c = classLoader.loadClass(parserContextClassName);
+
+            if(Script.class.isAssignableFrom(c)) {
+                return (ParserContext) ((Script) c.newInstance()).run();
+            } else {
+                return (ParserContext) c.newInstance();
+            }
+
+        } catch(Exception e) {
+            logger.error(e);
+            throw e;
+        }
+    }
+
+    public static ParseTree parseAST(String src) throws Exception {
+        ANTLRInputStream charStream = new ANTLRInputStream(src);
+        GLORIELexer lexer = new GLORIELexer(charStream);
+        CommonTokenStream tokenStream = new CommonTokenStream(lexer);
+        GLORIEParser parser = new GLORIEParser(tokenStream);
+        return parser.glr();
+    }
+
+
+    public CompiledGrammar parseGrammar(String src, ParseTree pt) throws Exception {
+
+        GrammarParser p = new GrammarParser(getGrammarURL(), parserContext, src);
+
+        Grammar g = p.visit(pt);
+
+        if(g.productions.isEmpty()) {
+            throw new IllegalStateException("Grammar '" + g.name + "' has no productions");
+        }
+
+        if(g.start == null) {
+            Symbol firstLHS = g.productions.get(0).lhs;
+            logger.info(String.format("Grammar root for '%s' not set. Using LHS of the first production '%s' as head", g.name, firstLHS.id));
+            g.start = firstLHS;
+        }
+
+        if(g.output.isEmpty()) {
+            logger.info(String.format("Output Nonterminals not specified, using grammar root '%s' as output", g.start.id));
+            g.output.add(g.start.id);
+        }
+
+
+        FlattenProductionRewriter seq = new FlattenProductionRewriter();
+        g.rewrite(seq);
+        g.rewriteTopLevelOr();
+        g.rewriteTopLevelSeq();
+
+        // check bindings
+        for(Production prod : g.productions) {
+            prod.validateBindings();
+        }
+
+        GroupRewriter groupRewriter = new GroupRewriter();
+        RangeRewriter rangeRewriter = new RangeRewriter();
+        g.rewrite(groupRewriter);
+        g.rewrite(rangeRewriter);
+
+        g.rewriteTopLevelSeq();
+        ReachabilityFilter reachabilityFilter = new ReachabilityFilter(g);
+        reachabilityFilter.filter();
+        g.removeEpsilon();
+        g.augmentGrammar();
+
+
+
+		g.transformPredicateNT();
+        for(Production prod : g.productions) {
+            prod.bindings(g);
+            prod.initHeadIndex();
+        }
+
+
+        g.computeReduceInfo();
+
+        g.computeEvaluators();
+        g.computePredInfo();
+        g.computePredFSA();
+
+
+        BasicReduceActionCompiler reduceActionCompiler = new BasicReduceActionCompiler(new GroovyCompiler(cc, classLoader));
+        InterpCompiler interpCompiler = new InterpCompiler(new GroovyCompiler(cc, classLoader));
+
+        return new CompiledGrammar(g, classLoader, reduceActionCompiler, interpCompiler);
+    }
+
+    public URL getGrammarURL() {
+        try {
+            return grammarFile.toURI().toURL();
+        } catch(Exception e) {
+            return null;
+        }
+    }
+
+    public File getGrammarFile() {
+        return grammarFile;
+    }
+
+    /**
+     * Parser context of the last compiled grammar
+     */
+    public ParserContext getParserContext() {
+        return parserContext;
+    }
+
+    /**
+     * Set predefined parser context. Otherwise the context is created from the grammar
+     */
+    public void setParserContext(ParserContext parserContext) {
+        this.parserContext = parserContext;
+    }
+
+    public CompilerConfiguration getCompilerConfiguration() {
+        return cc;
+    }
+
+    public GroovyClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    public static class ParserContextClassNameVisitor extends GLORIEBaseVisitor<String> {
+
+        String className;
+
+        @Override
+        public String visitGlr(GLORIEParser.GlrContext ctx) {
+            super.visitGlr(ctx);
+            return className;
+        }
+
+        @Override
+        public String visitParserContext(GLORIEParser.ParserContextContext ctx) {
+            className = ctx.className().getText();
+            return className;
+        }
+    }
+}
@@ -134,6 +134,8 @@ public class GrammarParser extends  GLORIEBaseVisitor<Grammar> {
 
                 if(optCtx.ident().size() > 1) {
                     value = optCtx.ident(1).getText();
+                } else if(optCtx.number() != null) {
+                    value = optCtx.number().getText();
                 }
 
                 grammar.options.put(key, value);
@@ -146,6 +148,37 @@ public class GrammarParser extends  GLORIEBaseVisitor<Grammar> {
                     case "disable_greedy":
                         grammar.useGreedy = false;
                         break;
+                    case "engine":
+                        grammar.binarize = "brnglr".equalsIgnoreCase(value);
+                        break;
+                    case "beam":
+                        grammar.beamWidth = intOption(optCtx, key, value, 1);
+                        break;
+                    case "beam_ratio":
+                        grammar.beamRatio = Double.parseDouble(value);
+
+                        // a ratio above 1 would prune the best node itself
+                        if(!(grammar.beamRatio > 0 && grammar.beamRatio <= 1)) {
+                            throw new IllegalStateException("Option beam_ratio must be in (0, 1], got " + value
+                                    + " at line " + optCtx.getStart().getLine());
+                        }
+                        break;
+                    case "hybrid":
+                        grammar.hybrid = true;
+                        break;
+                    case "streaming":
+                        grammar.streaming = true;
+                        break;
+                    case "prefix":
+                        if("auto".equalsIgnoreCase(value)) {
+                            grammar.autoPrefix = true;
+                        } else {
+                            grammar.prefixLength = intOption(optCtx, key, value, 0);
+                        }
+                        break;
+                    case "table":
+                        grammar.useLALR = "lalr".equalsIgnoreCase(value);
+                        break;
                 }
 
 
@@ -153,6 +186,29 @@ public class GrammarParser extends  GLORIEBaseVisitor<Grammar> {
 
             return grammar.options;
         }
+
+        /**
+         * Parse integer option value
+         *
+         * @param min minimal allowed value
+         */
+        private int intOption(GLORIEParser.OptionContext optCtx, String key, String value, int min) {
+            int v;
+
+            try {
+                v = Integer.parseInt(value);
+            } catch(NumberFormatException e) {
+                throw new IllegalStateException("Option " + key + " must be an integer, got " + value
+                        + " at line " + optCtx.getStart().getLine());
+            }
+
+            if(v < min) {
+                throw new IllegalStateException("Option " + key + " must be at least " + min + ", got " + value
+                        + " at line " + optCtx.getStart().getLine());
+            }
+
+            return v;
+        }
     }
 
     /**
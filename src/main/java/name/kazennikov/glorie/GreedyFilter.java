@@ -1,6 +1,7 @@
 package name.kazennikov.glorie;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
@@ -17,47 +18,127 @@ import java.util.List;
  * The filter is applied sequentially to:
  * 1. pending shifts of the current position
  * 2. computed root nodes
- * 3. all 'word' positions for current one. It will filter out all nodes built by conflicting productions
- *    at earlier stages of parsing as the input is a lattice, not a sequence of symbols.
+ * 3. state nodes of the reductions at the current position. It will filter out all nodes built by conflicting
+ *    productions at earlier stages of parsing as the input is a lattice, not a sequence of symbols.
+ *
+ * Only the state nodes of the reductions at the current position have non-terminal children: other state nodes
+ * of the current and the next positions are built by the shifter and have terminal children only,
+ * which are accepted by the policies. So the filter starts only from the nodes touched by the new reductions.
+ *
+ * The filter is created once per parser and reused for all word positions. Visit marks are kept in
+ * small hash tables cleared by epoch counter, so an application costs in proportion to the visited nodes,
+ * not to the GSS size. Roots settled behind the parse frontier and roots that end before all greedy
+ * reductions of the position are not visited.
  *
  *
  * @author Anton Kazennikov
  */
 public class GreedyFilter {
 
+    /**
+     * Visit marks of GSS nodes: node index -> result. Cleared by epoch counter
+     */
+    static class Marks {
+        int[] keys;
+        GreedyPolicy.Result[] values;
+        int[] stamp;    // stamp[i] == epoch iff i-th slot is used
+        int mask;
+        int size;
+        int epoch = 1;
+
+        Marks() {
+            alloc(256);
+        }
 
-	GLRParser parser;
-	int currentPos = 0;
-    List<GreedyVisitor> visitors = new ArrayList<>();
-    GreedyPolicy.Result[] visitedSymbolNodes;
-	GreedyPolicy.Result[] visitedStateNodes;
+        private void alloc(int capacity) {
+            keys = new int[capacity];
+            values = new GreedyPolicy.Result[capacity];
+            stamp = new int[capacity];
+            mask = capacity - 1;
+        }
 
+        private static int hash(int key) {
+            int h = key * 0x9E3779B1;
+            return h ^ (h >>> 16);
+        }
 
+        public GreedyPolicy.Result get(int key) {
+            int i = hash(key) & mask;
 
-	public GreedyFilter(GLRParser parser, int currentPos) {
-		this.parser = parser;
+            while(stamp[i] == epoch) {
+                if(keys[i] == key)
+                    return values[i];
+                i = (i + 1) & mask;
+            }
 
-		visitedStateNodes = new GreedyPolicy.Result[stateNodeCount()];
-		visitedSymbolNodes = new GreedyPolicy.Result[symbolNodeCount()];
+            return null;
+        }
 
-		visitedStateNodes[parser.startNode.index] = GreedyPolicy.Result.ACCEPT;
+        public void put(int key, GreedyPolicy.Result value) {
+            if((size + 1) * 2 > keys.length) {
+                rehash();
+            }
 
-		this.currentPos = currentPos;
+            int i = hash(key) & mask;
 
-        for(GreedyPolicy p : parser.grammar.policies) {
-            GLRParser.PerformedReduction r = p.max(parser.reductions);
-            if(r != null) {
-                visitors.add(new GreedyVisitor(this, p, r));
+            while(stamp[i] == epoch) {
+                if(keys[i] == key) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
             }
+
+            stamp[i] = epoch;
+            keys[i] = key;
+            values[i] = value;
+            size++;
         }
-	}
 
-	public int symbolNodeCount() {
-		return parser.lastSymbolNodeId + 1;
-	}
+        private void rehash() {
+            int[] oldKeys = keys;
+            GreedyPolicy.Result[] oldValues = values;
+            int[] oldStamp = stamp;
+            int oldEpoch = epoch;
+
+            alloc(oldKeys.length * 2);
+            epoch = 1;
+            size = 0;
+
+            for(int j = 0; j < oldKeys.length; j++) {
+                if(oldStamp[j] == oldEpoch) {
+                    put(oldKeys[j], oldValues[j]);
+                }
+            }
+        }
+
+        public void clear() {
+            size = 0;
+            epoch++;
+
+            // on stamp overflow, reset the table explicitly
+            if(epoch == Integer.MAX_VALUE) {
+                Arrays.fill(stamp, 0);
+                Arrays.fill(values, null);
+                epoch = 1;
+            }
+        }
+    }
+
+
+	GLRParser parser;
+	int currentPos = 0;
+    final GreedyVisitor[] policyVisitors;           // visitor per policy, reused
+    final List<GreedyVisitor> visitors = new ArrayList<>();    // visitors of the policies with a max reduction
+    final Marks visitedSymbolNodes = new Marks();
+	final Marks visitedStateNodes = new Marks();
+
+	int applyCount;     // number of applications with at least one greedy reduction
+
 
-	public int stateNodeCount() {
-		return parser.lastStateNodeId + 1;
+	public GreedyFilter(GLRParser parser) {
+		this.parser = parser;
+		this.policyVisitors = new GreedyVisitor[parser.grammar.policies.size()];
 	}
 
     /**
@@ -66,19 +147,19 @@ public class GreedyFilter {
      * @return n, or null if the symbol node is filtered
      */
     public SymbolNode visit(SymbolNode n) {
-        GreedyPolicy.Result res = visitedSymbolNodes[n.index];
+        GreedyPolicy.Result res = visitedSymbolNodes.get(n.index);
         if(res != null) {
             return res == GreedyPolicy.Result.REMOVE? null : n;
         }
 
         for(GreedyVisitor v : visitors) {
             if(v.visit(n) == null) {
-                visitedSymbolNodes[n.index] = GreedyPolicy.Result.REMOVE;
+                visitedSymbolNodes.put(n.index, GreedyPolicy.Result.REMOVE);
                 return null;
             }
         }
 
-        visitedSymbolNodes[n.index] = GreedyPolicy.Result.ACCEPT;
+        visitedSymbolNodes.put(n.index, GreedyPolicy.Result.ACCEPT);
         return n;
     }
 
@@ -89,74 +170,129 @@ public class GreedyFilter {
      * @return n, or null if the state node is filtered
      */
     public StateNode visit(StateNode n) {
-        GreedyPolicy.Result res = visitedStateNodes[n.index];
+        GreedyPolicy.Result res = visitedStateNodes.get(n.index);
         if(res != null) {
             return res == GreedyPolicy.Result.REMOVE? null : n;
         }
 
         for(GreedyVisitor v : visitors) {
             if(v.visit(n) == null) {
-                visitedStateNodes[n.index] = GreedyPolicy.Result.REMOVE;
+                visitedStateNodes.put(n.index, GreedyPolicy.Result.REMOVE);
                 return null;
             }
         }
 
-        visitedStateNodes[n.index] = GreedyPolicy.Result.ACCEPT;
+        visitedStateNodes.put(n.index, GreedyPolicy.Result.ACCEPT);
         return n;
     }
 
+    /**
+     * Select max reductions of the policies at current position
+     * @return true, if there is at least one greedy reduction
+     */
+    boolean init(int currentPos) {
+        this.currentPos = currentPos;
+        visitors.clear();
+
+        for(int i = 0; i < policyVisitors.length; i++) {
+            GreedyPolicy p = parser.grammar.policies.get(i);
+            GLRParser.PerformedReduction r = p.max(parser.reductions);
+
+            if(r == null)
+                continue;
+
+            if(policyVisitors[i] == null) {
+                policyVisitors[i] = new GreedyVisitor(this, p);
+            }
+
+            policyVisitors[i].reset(r);
+            visitors.add(policyVisitors[i]);
+        }
+
+        if(visitors.isEmpty())
+            return false;
+
+        visitedSymbolNodes.clear();
+        visitedStateNodes.clear();
+        visitedStateNodes.put(parser.startNode.index, GreedyPolicy.Result.ACCEPT);
+        applyCount++;
+
+        return true;
+    }
+
 
     /**
      * Apply filter to the parse state
+     * @param currentPos current word position
      */
-	public void filter() {
-        if(visitors.isEmpty())
+	public void filter(int currentPos) {
+        if(!init(currentPos))
             return;
 
-		List<GLRParser.PendingShift> shifts = new ArrayList<>(parser.pendingShifts.size());
-
         // filter pending shifts
-		for(GLRParser.PendingShift shift : parser.pendingShifts) {
-			StateNode n = visit(shift.stateNode);
-			if(n != null) {
-				shifts.add(shift);
+        int kept = 0;
+
+		for(int i = 0; i < parser.pendingShifts.size(); i++) {
+			GLRParser.PendingShift shift = parser.pendingShifts.get(i);
+
+			if(visit(shift.stateNode) != null) {
+				parser.pendingShifts.set(kept++, shift);
 			}
 		}
 
-		parser.pendingShifts.clear();
-		parser.pendingShifts.addAll(shifts);
+		parser.pendingShifts.subList(kept, parser.pendingShifts.size()).clear();
 
 
-        List<SymbolNode> roots = new ArrayList<>(parser.roots.size());
+		// filter already built root nodes, settled roots and roots released in the streaming mode
+		// end before the parse frontier, so they can't overlap current reductions.
+		// Roots that end before all greedy reductions are accepted by the policies
+        int horizon = Integer.MAX_VALUE;
 
-		// filter already built root nodes
-		for(SymbolNode root : parser.roots) {
-			if(visit(root) != null)
-				roots.add(root);
-		}
+        for(GreedyVisitor v : visitors) {
+            horizon = Math.min(horizon, v.policy.acceptedBefore(v.r));
+        }
 
-        parser.roots.clear();
-        parser.roots.addAll(roots);
+        List<SymbolNode> roots = parser.roots;
+        kept = parser.settledRoots;
 
+		for(int i = parser.settledRoots; i < roots.size(); i++) {
+			SymbolNode root = roots.get(i);
 
-		// filter next positions state, as the may be built earlier
-		for(int i = currentPos; i <= parser.maxWordState; i++) {
+			if(root.released || root.symbol.end <= horizon || visit(root) != null)
+				roots.set(kept++, root);
+		}
 
-			List<StateNode> wordNodes = parser.nodes4word.get(i);
+        roots.subList(kept, roots.size()).clear();
 
-			if(wordNodes.isEmpty())
-				continue;
 
-			List<StateNode> nodes = new ArrayList<>();
+		// filter state nodes of the reductions at this word, the visitor descends to the nodes of earlier words
+		boolean removed = false;
 
+		for(int i = 0; i < parser.reductions.size(); i++) {
+			if(visit(parser.reductions.get(i).state) == null)
+				removed = true;
+		}
 
-			for(StateNode n : wordNodes) {
-				if(visit(n) != null)
-					nodes.add(n);
-			}
+		if(!removed)
+			return;
+
+		List<StateNode> wordNodes = parser.nodes4word.get(currentPos);
+		kept = 0;
+
+		for(int j = 0; j < wordNodes.size(); j++) {
+			StateNode n = wordNodes.get(j);
 
-			wordNodes.clear();
-			wordNodes.addAll(nodes);
+			if(visitedStateNodes.get(n.index) != GreedyPolicy.Result.REMOVE)
+				wordNodes.set(kept++, n);
 		}
+
+		wordNodes.subList(kept, wordNodes.size()).clear();
+	}
+
+	/**
+	 * Number of filter applications with at least one greedy reduction
+	 */
+	public int getApplyCount() {
+		return applyCount;
 	}
 }
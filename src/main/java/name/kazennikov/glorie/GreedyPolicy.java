@@ -41,6 +41,17 @@ public interface GreedyPolicy {
      */
     public Result check(GLRParser.PerformedReduction r, GreedyVisitor v, SymbolNode symbolNode);
 
+    /**
+     * Get offset such that all symbol nodes that end at or before it are accepted
+     * by the policy for the reduction. The filter doesn't visit such nodes
+     *
+     * @param r reduction
+     * @return offset, Integer.MIN_VALUE if there is no such offset
+     */
+    public default int acceptedBefore(GLRParser.PerformedReduction r) {
+        return Integer.MIN_VALUE;
+    }
+
 
     /**
      * Base policy.
@@ -112,6 +123,11 @@ public interface GreedyPolicy {
             return maxReduction;
         }
 
+        @Override
+        public int acceptedBefore(GLRParser.PerformedReduction r) {
+            return r.sym.symbol.start;
+        }
+
         @Override
         public Result check(GLRParser.PerformedReduction r, GreedyVisitor v, SymbolNode n) {
             if(super.check(r, v, n) == Result.ACCEPT)
@@ -1,8 +1,5 @@
 package name.kazennikov.glorie;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
  * Visitor of the graph parse tree state.
  *
@@ -14,24 +11,30 @@ public class GreedyVisitor {
     GLRParser.PerformedReduction r;
     GreedyFilter filter;
     GreedyPolicy policy;
-	GreedyPolicy.Result[] visitedSymbolNodes;
-	GreedyPolicy.Result[] visitedStateNodes;
+	final GreedyFilter.Marks visitedSymbolNodes = new GreedyFilter.Marks();
+	final GreedyFilter.Marks visitedStateNodes = new GreedyFilter.Marks();
 
 
-    public GreedyVisitor(GreedyFilter filter, GreedyPolicy policy, GLRParser.PerformedReduction r) {
+    public GreedyVisitor(GreedyFilter filter, GreedyPolicy policy) {
         this.filter = filter;
         this.policy = policy;
+    }
+
+    /**
+     * Reset the visitor for a new max reduction of the policy
+     */
+    public void reset(GLRParser.PerformedReduction r) {
         this.r = r;
-		visitedStateNodes = new GreedyPolicy.Result[filter.stateNodeCount()];
-		visitedSymbolNodes = new GreedyPolicy.Result[filter.symbolNodeCount()];
+        visitedSymbolNodes.clear();
+        visitedStateNodes.clear();
     }
 
     public SymbolNode visit(SymbolNode n) {
         // if node is already filtered by other policies
-        if(filter.visitedSymbolNodes[n.index] == GreedyPolicy.Result.REMOVE)
+        if(filter.visitedSymbolNodes.get(n.index) == GreedyPolicy.Result.REMOVE)
             return null;
 
-        GreedyPolicy.Result res = visitedSymbolNodes[n.index];
+        GreedyPolicy.Result res = visitedSymbolNodes.get(n.index);
 
         // if already visited by this visitor, return the result
         if(res != null) {
@@ -41,33 +44,34 @@ public class GreedyVisitor {
         GreedyPolicy.Result status = policy.check(r, this, n);
 
         if(status == GreedyPolicy.Result.REMOVE) {
-            visitedSymbolNodes[n.index] = GreedyPolicy.Result.REMOVE;
+            visitedSymbolNodes.put(n.index, GreedyPolicy.Result.REMOVE);
             return null;
         } else if(status == GreedyPolicy.Result.ACCEPT) {
-            visitedSymbolNodes[n.index] = GreedyPolicy.Result.ACCEPT;
+            visitedSymbolNodes.put(n.index, GreedyPolicy.Result.ACCEPT);
             return n;
         }
 
 
-        List<StackNode> filtered = new ArrayList<>(n.childCount());
+        // compact accepted children in place
+        int kept = 0;
 
         for(int i = 0; i < n.childCount(); i++) {
             StateNode child = n.getChild(i);
             StateNode after = visit(child);
 
 			if(after != null) {
-                filtered.add(after);
+                n.setChild(kept++, after);
             }
 
         }
 
-        if(filtered.isEmpty()) {
-            visitedSymbolNodes[n.index] = GreedyPolicy.Result.REMOVE;
+        if(kept == 0) {
+            visitedSymbolNodes.put(n.index, GreedyPolicy.Result.REMOVE);
             return null;
         }
 
-        n.children = filtered;
-        visitedSymbolNodes[n.index] = GreedyPolicy.Result.ACCEPT;
+        n.truncateChildren(kept);
+        visitedSymbolNodes.put(n.index, GreedyPolicy.Result.ACCEPT);
 
         return n;
     }
@@ -78,35 +82,36 @@ public class GreedyVisitor {
         if(n.state == 0)
             return n;
 
-        if(filter.visitedStateNodes[n.index] == GreedyPolicy.Result.REMOVE)
+        if(filter.visitedStateNodes.get(n.index) == GreedyPolicy.Result.REMOVE)
             return null;
 
-        GreedyPolicy.Result res = visitedStateNodes[n.index];
+        GreedyPolicy.Result res = visitedStateNodes.get(n.index);
 
         // if visited, return it
         if(res != null) {
             return res == GreedyPolicy.Result.REMOVE? null : n;
         }
 
-        List<StackNode> filtered = new ArrayList<>(n.childCount());
+        // compact accepted children in place
+        int kept = 0;
 
         for(int i = 0; i < n.childCount(); i++) {
             SymbolNode child = n.getChild(i);
             SymbolNode after = visit(child);
 
             if(after != null) {
-                filtered.add(after);
+                n.setChild(kept++, after);
             }
 
         }
 
-        if(filtered.isEmpty()) {
-            visitedStateNodes[n.index] = GreedyPolicy.Result.REMOVE;
+        if(kept == 0) {
+            visitedStateNodes.put(n.index, GreedyPolicy.Result.REMOVE);
             return null;
         }
 
-        n.children = filtered;
-        visitedStateNodes[n.index] = GreedyPolicy.Result.ACCEPT;
+        n.truncateChildren(kept);
+        visitedStateNodes.put(n.index, GreedyPolicy.Result.ACCEPT);
 
         return n;
     }
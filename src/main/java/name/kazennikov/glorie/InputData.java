@@ -6,13 +6,20 @@ import gnu.trove.list.array.TIntArrayList;
 import name.kazennikov.sort.BinarySearch;
 import name.kazennikov.sort.FixedIntComparator;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Input spans and additional data for GLR Parser
+ *
+ * The input is either complete (batch), or incremental. The incremental input grows by append(),
+ * a word is closed when a span with greater start is appended, or on finish(). Next words
+ * of the spans are resolved when a word that starts at or after the span end is appended.
+ * Input span ids are indexes in the input list, ids of the spans created by the parser
+ * are allocated after INCREMENTAL_SPAN_ID_BASE, so they never clash with later input spans.
  */
 public class InputData {
-    Document doc;
 
     // document text
     String text;
@@ -44,12 +51,26 @@ public class InputData {
     // id of the last created symbol span
     int lastSpanId;
 
+    // incremental input
+    public static final int INCREMENTAL_SPAN_ID_BASE = 1 << 30;
+    boolean incremental;
+    boolean finished;
+    TIntArrayList pending;  // ids of the spans with unresolved next word, in the id order
 
 
     public InputData(Document doc, List<SymbolSpan> input) {
-        this.text = doc.getContent().toString();
-        this.docFeats = doc.getFeatures();
-        this.doc = doc;
+        this(doc.getContent().toString(), doc.getFeatures(), input);
+    }
+
+    /**
+     * Create input over plain text, without GATE document
+     * @param text document text
+     * @param docFeats document features
+     * @param input sorted input spans
+     */
+    public InputData(CharSequence text, FeatureMap docFeats, List<SymbolSpan> input) {
+        this.text = text.toString();
+        this.docFeats = docFeats;
         this.input = input;
         this.lastSpanId = this.input.size();
         words = new int[input.size()];
@@ -61,6 +82,30 @@ public class InputData {
 
     }
 
+    /**
+     * Create empty incremental input
+     * @param doc source document
+     */
+    public InputData(Document doc) {
+        this(doc.getContent().toString(), doc.getFeatures());
+    }
+
+    /**
+     * Create empty incremental input over plain text
+     * @param text document text
+     * @param docFeats document features
+     */
+    public InputData(CharSequence text, FeatureMap docFeats) {
+        this.text = text.toString();
+        this.docFeats = docFeats;
+        this.input = new ArrayList<>();
+        this.lastSpanId = INCREMENTAL_SPAN_ID_BASE;
+        this.incremental = true;
+        this.pending = new TIntArrayList();
+        words = new int[64];
+        nextWords = new int[64];
+    }
+
     public void init() {
         for(int i = 0; i < input.size(); i++) {
             input.get(i).id = i;
@@ -177,5 +222,125 @@ public class InputData {
         return wordStarts.size();
     }
 
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    public boolean isFinished() {
+        return !incremental || finished;
+    }
+
+    /**
+     * Append spans to the incremental input
+     * @param spans spans sorted by start offset, that don't start before the last appended span
+     */
+    public void append(List<SymbolSpan> spans) {
+        if(!incremental || finished)
+            throw new IllegalStateException("Input is not open for appending");
+
+        for(SymbolSpan span : spans) {
+            int word = wordStarts.size() - 1;
+
+            if(word >= 0 && span.start < wordOffsets.get(word))
+                throw new IllegalArgumentException("Span " + span + " starts before the last appended span");
+
+            int id = input.size();
+
+            if(id == words.length) {
+                words = Arrays.copyOf(words, id * 2);
+                nextWords = Arrays.copyOf(nextWords, id * 2);
+            }
+
+            span.id = id;
+            input.add(span);
+
+            if(word < 0 || span.start != wordOffsets.get(word)) {
+                if(word >= 0) {
+                    closeWord(word);
+                }
+
+                word++;
+                resolve(span.start, word);
+                wordOffsets.add(span.start);
+                wordStarts.add(id);
+                wordEnds.add(id + 1);
+            } else {
+                wordEnds.set(word, id + 1);
+            }
+
+            words[id] = word;
+            nextWords[id] = -1;
+            pending.add(id);
+        }
+    }
+
+    /**
+     * Finish the incremental input, spans without a following word get the word count
+     * as their next word
+     */
+    public void finish() {
+        if(finished)
+            return;
+
+        if(wordStarts.size() > 0) {
+            closeWord(wordStarts.size() - 1);
+        }
+
+        resolve(Integer.MAX_VALUE, wordStarts.size());
+        finished = true;
+    }
+
+    /**
+     * Resolve next word of the zero length spans of a closed word, that are followed by a span of the same word
+     */
+    private void closeWord(int word) {
+        int offset = wordOffsets.get(word);
+        int last = wordEnds.get(word) - 1;
+
+        for(int i = wordStarts.get(word); i < last; i++) {
+            if(nextWords[i] == -1 && input.get(i).end <= offset) {
+                nextWords[i] = word;
+            }
+        }
+    }
+
+    /**
+     * Resolve next word of pending spans that end at or before given offset
+     */
+    private void resolve(int offset, int word) {
+        int kept = 0;
+
+        for(int i = 0; i < pending.size(); i++) {
+            int id = pending.get(i);
+
+            if(nextWords[id] == -1 && input.get(id).end <= offset) {
+                nextWords[id] = word;
+            }
+
+            if(nextWords[id] == -1) {
+                pending.set(kept++, id);
+            }
+        }
+
+        pending.remove(kept, pending.size() - kept);
+    }
+
+    /**
+     * Number of leading words that are closed and have all next words resolved.
+     * Such words could be parsed
+     */
+    public int resolvedWords() {
+        if(!incremental)
+            return wordStarts.size();
+
+        int closed = finished? wordStarts.size() : Math.max(wordStarts.size() - 1, 0);
+
+        if(!pending.isEmpty()) {
+            closed = Math.min(closed, words[pending.get(0)]);
+        }
+
+        return closed;
+    }
+
 
 }
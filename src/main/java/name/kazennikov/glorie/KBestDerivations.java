@@ -0,0 +1,227 @@
+package name.kazennikov.glorie;
+
+import java.util.*;
+
+/**
+ * Best and k-best derivations of a packed parse forest.
+ *
+ * The score of a derivation is the product of production weights of its parses
+ * and weights of its leaf symbol spans (nodes without parses). If weights are disabled,
+ * all derivations have score 1.0.
+ *
+ * The 1-best derivation of a node is computed bottom-up with memoization (Viterbi).
+ * The k-best derivations are enumerated lazily by the algorithm 3 of
+ * L. Huang, D. Chiang "Better k-best parsing" (2005): the k-th derivation of a node
+ * is computed only when requested, from the candidate heap of the node.
+ */
+public class KBestDerivations {
+
+    /**
+     * Derivation of a symbol node: a parse of the node and ranks of the item derivations
+     */
+    public static class Derivation {
+        public final SymbolNode node;
+        public final GLRParser.ParsingChildrenSet parse;    // null for leaf nodes
+        public final int[] ranks;                           // ranks[i] - rank of the derivation of i-th parse item
+        public final double score;
+        final Derivation[] children;
+
+        Derivation(SymbolNode node, GLRParser.ParsingChildrenSet parse, int[] ranks, Derivation[] children, double score) {
+            this.node = node;
+            this.parse = parse;
+            this.ranks = ranks;
+            this.children = children;
+            this.score = score;
+        }
+
+        /**
+         * Derivation of i-th parse item
+         */
+        public Derivation child(int i) {
+            return children[i];
+        }
+
+        public int childCount() {
+            return children.length;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(this == o)
+                return true;
+
+            if(!(o instanceof Derivation))
+                return false;
+
+            Derivation other = (Derivation) o;
+            return parse == other.parse && Arrays.equals(ranks, other.ranks);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(parse) + Arrays.hashCode(ranks);
+        }
+    }
+
+    static final Comparator<Derivation> ORDER = new Comparator<Derivation>() {
+        @Override
+        public int compare(Derivation o1, Derivation o2) {
+            return Double.compare(o2.score, o1.score);
+        }
+    };
+
+    static class NodeState {
+        final List<Derivation> derivations = new ArrayList<>();
+        final PriorityQueue<Derivation> candidates = new PriorityQueue<>(8, ORDER);
+        final Set<Derivation> seen = new HashSet<>();
+    }
+
+    static final int[] NO_RANKS = new int[0];
+    static final Derivation[] NO_CHILDREN = new Derivation[0];
+
+    final boolean useWeights;
+    final Map<SymbolNode, NodeState> states = new IdentityHashMap<>();
+
+    public KBestDerivations(boolean useWeights) {
+        this.useWeights = useWeights;
+    }
+
+    /**
+     * Get best derivation of the node
+     */
+    public Derivation best(SymbolNode node) {
+        return get(node, 0);
+    }
+
+    /**
+     * Get k-best derivations of the node
+     * @param node symbol node
+     * @param k max number of derivations
+     * @return list of at most k derivations, in descending score order
+     */
+    public List<Derivation> kBest(SymbolNode node, int k) {
+        List<Derivation> l = new ArrayList<>(k);
+
+        for(int i = 0; i < k; i++) {
+            Derivation d = get(node, i);
+            if(d == null)
+                break;
+            l.add(d);
+        }
+
+        return l;
+    }
+
+    /**
+     * Get k-th best derivation of the node
+     * @param node symbol node
+     * @param k derivation rank, 0 for the best
+     * @return derivation, or null if the node has less than k + 1 derivations
+     */
+    public Derivation get(SymbolNode node, int k) {
+        NodeState state = states.get(node);
+
+        if(state == null) {
+            state = init(node);
+        }
+
+        while(state.derivations.size() <= k) {
+            if(!state.derivations.isEmpty()) {
+                next(state, state.derivations.get(state.derivations.size() - 1));
+            }
+
+            Derivation d = state.candidates.poll();
+
+            if(d == null)
+                return null;
+
+            state.derivations.add(d);
+        }
+
+        return state.derivations.get(k);
+    }
+
+    private NodeState init(SymbolNode node) {
+        NodeState state = new NodeState();
+        states.put(node, state);
+
+        if(node.parseChildren.isEmpty()) {
+            Derivation d = new Derivation(node, null, NO_RANKS, NO_CHILDREN, useWeights? node.symbol.weight : 1.0);
+            state.candidates.add(d);
+            state.seen.add(d);
+            return state;
+        }
+
+        for(GLRParser.ParsingChildrenSet parse : node.parseChildren) {
+            Derivation d = derivation(node, parse, new int[parse.itemCount()]);
+
+            if(d != null && state.seen.add(d)) {
+                state.candidates.add(d);
+            }
+        }
+
+        return state;
+    }
+
+    /**
+     * Push successors of the derivation to the candidates of the node
+     */
+    private void next(NodeState state, Derivation d) {
+        if(d.parse == null)
+            return;
+
+        for(int i = 0; i < d.ranks.length; i++) {
+            int[] ranks = d.ranks.clone();
+            ranks[i]++;
+
+            Derivation succ = derivation(d.node, d.parse, ranks);
+
+            if(succ != null && state.seen.add(succ)) {
+                state.candidates.add(succ);
+            }
+        }
+    }
+
+    private Derivation derivation(SymbolNode node, GLRParser.ParsingChildrenSet parse, int[] ranks) {
+        Derivation[] children = new Derivation[ranks.length];
+        double score = useWeights? parse.rule.production.weight : 1.0;
+
+        for(int i = 0; i < ranks.length; i++) {
+            children[i] = get(parse.item(i), ranks[i]);
+
+            if(children[i] == null)
+                return null;
+
+            score *= children[i].score;
+        }
+
+        return new Derivation(node, parse, ranks, children, score);
+    }
+
+    /**
+     * Collect parses used by the derivation
+     * @param d derivation
+     * @param parses target map: node -> used parses
+     */
+    public static void collect(Derivation d, Map<SymbolNode, Set<GLRParser.ParsingChildrenSet>> parses) {
+        if(d.parse == null)
+            return;
+
+        Set<GLRParser.ParsingChildrenSet> nodeParses = parses.get(d.node);
+
+        if(nodeParses == null) {
+            nodeParses = Collections.newSetFromMap(new IdentityHashMap<GLRParser.ParsingChildrenSet, Boolean>());
+            parses.put(d.node, nodeParses);
+        }
+
+        nodeParses.add(d.parse);
+
+        for(Derivation child : d.children) {
+            collect(child, parses);
+        }
+    }
+
+    public void clear() {
+        states.clear();
+    }
+}
@@ -0,0 +1,190 @@
+package name.kazennikov.glorie;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * LALR(1) lookahead sets computed over the LR(0) automaton of {@link LRItems}
+ * by the DeRemer-Pennello algorithm.
+ *
+ * For a non-terminal transition (p, A):
+ * DR(p, A) - terminals that can be shifted (or EOF) right after goto(p, A);
+ * (p, A) includes (p', B) iff B -> beta A and p' --beta--> p;
+ * Follow(p, A) = DR(p, A) + union of Follow(p', B) for all (p, A) includes (p', B).
+ *
+ * For a finished item A -> w in state q, (q, A -> w) lookback (p, A) iff p --w--> q, and
+ * LA(q, A -> w) is the union of Follow(p, A) for all lookback transitions.
+ *
+ * As the grammar is epsilon-free, the reads relation is empty and 'includes' relates
+ * only transitions on the last RHS symbol.
+ */
+public class LALRLookaheads {
+    final CompiledGrammar g;
+    final LRItems items;
+
+    // non-terminal transitions (state, symbol)
+    TLongIntHashMap transitionIndex = new TLongIntHashMap(100, 0.5f, -1, -1);
+    TIntArrayList transitionState = new TIntArrayList();
+    TIntArrayList transitionSymbol = new TIntArrayList();
+
+    List<TIntHashSet> follow = new ArrayList<>();
+
+    // reverse includes relation: includedBy[t'] - transitions t such that t includes t'
+    List<TIntArrayList> includedBy = new ArrayList<>();
+
+    // (state, rule) -> lookback transitions
+    TLongObjectHashMap<TIntArrayList> lookback = new TLongObjectHashMap<>();
+
+    // (state, rule) -> lookahead set
+    TLongObjectHashMap<TIntHashSet> lookaheads = new TLongObjectHashMap<>();
+
+    static final TIntSet EMPTY = new TIntHashSet();
+
+    public LALRLookaheads(CompiledGrammar g, LRItems items) {
+        this.g = g;
+        this.items = items;
+    }
+
+    private static long key(int a, int b) {
+        return ((long) a << 32) | (b & 0xFFFFFFFFL);
+    }
+
+    public void compute() {
+        TIntObjectHashMap<TIntArrayList> rulesByLhs = new TIntObjectHashMap<>();
+
+        for(CompiledGrammar.Rule r : g.rules) {
+            if(r.lhs == g.lrStart)
+                continue;
+
+            TIntArrayList l = rulesByLhs.get(r.lhs);
+            if(l == null) {
+                l = new TIntArrayList();
+                rulesByLhs.put(r.lhs, l);
+            }
+            l.add(r.id);
+        }
+
+        // collect non-terminal transitions and their direct read sets
+        for(int state = 0; state < items.itemSets.size(); state++) {
+            for(int sym = 0; sym < g.symbols.size(); sym++) {
+                if(!g.isNT(sym))
+                    continue;
+
+                int next = items.getGoto(state, sym);
+                if(next == -1)
+                    continue;
+
+                transitionIndex.put(key(state, sym), transitionState.size());
+                transitionState.add(state);
+                transitionSymbol.add(sym);
+                includedBy.add(new TIntArrayList());
+
+                TIntHashSet dr = new TIntHashSet();
+                for(LRItems.LRItem item : items.itemSets.get(next)) {
+                    if(!items.isFinished(item) && !g.isNT(items.symbol(item))) {
+                        dr.add(items.symbol(item));
+                    }
+                }
+
+                follow.add(dr);
+            }
+        }
+
+        // includes and lookback relations
+        for(int t = 0; t < transitionState.size(); t++) {
+            TIntArrayList rules = rulesByLhs.get(transitionSymbol.get(t));
+            if(rules == null)
+                continue;
+
+            for(int i = 0; i < rules.size(); i++) {
+                CompiledGrammar.Rule r = g.rules[rules.get(i)];
+                int state = transitionState.get(t);
+
+                for(int j = 0; j < r.rhs.length && state != -1; j++) {
+                    int sym = r.rhs[j];
+
+                    if(j == r.rhs.length - 1 && g.isNT(sym)) {
+                        int including = transitionIndex.get(key(state, sym));
+                        if(including != -1 && including != t) {
+                            includedBy.get(t).add(including);
+                        }
+                    }
+
+                    state = items.getGoto(state, sym);
+                }
+
+                if(state == -1)
+                    continue;
+
+                long k = key(state, r.id);
+                TIntArrayList l = lookback.get(k);
+                if(l == null) {
+                    l = new TIntArrayList();
+                    lookback.put(k, l);
+                }
+
+                l.add(t);
+            }
+        }
+
+        propagate();
+
+        for(long k : lookback.keys()) {
+            TIntArrayList l = lookback.get(k);
+            TIntHashSet la = new TIntHashSet();
+
+            for(int i = 0; i < l.size(); i++) {
+                la.addAll(follow.get(l.get(i)));
+            }
+
+            lookaheads.put(k, la);
+        }
+    }
+
+    /**
+     * Propagate Follow sets along the includes relation until fixpoint
+     */
+    private void propagate() {
+        TIntArrayList queue = new TIntArrayList();
+        boolean[] queued = new boolean[transitionState.size()];
+
+        for(int t = 0; t < transitionState.size(); t++) {
+            queue.add(t);
+            queued[t] = true;
+        }
+
+        while(!queue.isEmpty()) {
+            int src = queue.removeAt(queue.size() - 1);
+            queued[src] = false;
+
+            TIntHashSet srcFollow = follow.get(src);
+
+            for(int i = 0; i < includedBy.get(src).size(); i++) {
+                int dest = includedBy.get(src).get(i);
+
+                if(follow.get(dest).addAll(srcFollow) && !queued[dest]) {
+                    queue.add(dest);
+                    queued[dest] = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get lookahead set of a reduction
+     * @param state LR(0) state
+     * @param rule rule id of the finished item
+     * @return lookahead terminals
+     */
+    public TIntSet lookahead(int state, int rule) {
+        TIntHashSet la = lookaheads.get(key(state, rule));
+        return la != null? la : EMPTY;
+    }
+}
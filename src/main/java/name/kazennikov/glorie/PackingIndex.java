@@ -0,0 +1,157 @@
+package name.kazennikov.glorie;
+
+import java.util.Arrays;
+
+/**
+ * Index of symbol nodes for local ambiguity packing.
+ *
+ * Maps (parent state node, symbol, start, end, head, weight, target state node) to a symbol node
+ * created by a reduction. The features aren't part of the hash as equal feature maps may be
+ * different objects: they are compared only for entries with matching key fields.
+ *
+ * The packing occurs only for state nodes of the current word, so the index is cleared
+ * (by epoch counter) before parsing of each word.
+ *
+ * @author Anton Kazennikov
+ */
+public class PackingIndex {
+	int[] hashes;
+	StateNode[] parents;
+	StateNode[] targets;
+	SymbolNode[] nodes;
+	int[] stamp;    // stamp[i] == epoch iff i-th slot is used
+	int mask;
+	int size;
+	int epoch = 1;
+
+	public PackingIndex() {
+		this(1024);
+	}
+
+	public PackingIndex(int capacity) {
+		capacity = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+		alloc(capacity);
+	}
+
+	private void alloc(int capacity) {
+		hashes = new int[capacity];
+		parents = new StateNode[capacity];
+		targets = new StateNode[capacity];
+		nodes = new SymbolNode[capacity];
+		stamp = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private static int hash(StateNode parent, SymbolSpan span, StateNode target) {
+		int h = parent.slot;
+		h = 31 * h + target.slot;
+		h = 31 * h + span.symbol;
+		h = 31 * h + span.start;
+		h = 31 * h + span.end;
+		h = 31 * h + System.identityHashCode(span.head);
+		long w = Double.doubleToLongBits(span.weight);
+		h = 31 * h + (int) (w ^ (w >>> 32));
+		h *= 0x9E3779B1;
+		return h ^ (h >>> 16);
+	}
+
+	private static boolean matches(SymbolSpan span, SymbolSpan other) {
+		return span.start == other.start
+				&& span.end == other.end
+				&& span.symbol == other.symbol
+				&& span.head == other.head
+				&& span.weight == other.weight
+				&& (span.features == other.features
+					||
+					span.features != null && span.features.equals(other.features));
+	}
+
+	/**
+	 * Find symbol node for packing
+	 *
+	 * @param parent state node of the reduction
+	 * @param span reduced symbol span
+	 * @param target first state node of the reduction
+	 * @return symbol node, or null if not found
+	 */
+	public SymbolNode get(StateNode parent, SymbolSpan span, StateNode target) {
+		int h = hash(parent, span, target);
+		int i = h & mask;
+
+		while(stamp[i] == epoch) {
+			if(hashes[i] == h && parents[i] == parent && targets[i] == target && matches(span, nodes[i].symbol))
+				return nodes[i];
+
+			i = (i + 1) & mask;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Add symbol node to the index
+	 *
+	 * @param parent state node of the reduction
+	 * @param node new symbol node
+	 * @param target first state node of the reduction
+	 */
+	public void put(StateNode parent, SymbolNode node, StateNode target) {
+		if((size + 1) * 2 > hashes.length) {
+			rehash();
+		}
+
+		int h = hash(parent, node.symbol, target);
+		insert(h, parent, node, target);
+		size++;
+	}
+
+	private void insert(int h, StateNode parent, SymbolNode node, StateNode target) {
+		int i = h & mask;
+
+		while(stamp[i] == epoch) {
+			i = (i + 1) & mask;
+		}
+
+		stamp[i] = epoch;
+		hashes[i] = h;
+		parents[i] = parent;
+		targets[i] = target;
+		nodes[i] = node;
+	}
+
+	private void rehash() {
+		int[] oldHashes = hashes;
+		StateNode[] oldParents = parents;
+		StateNode[] oldTargets = targets;
+		SymbolNode[] oldNodes = nodes;
+		int[] oldStamp = stamp;
+		int oldEpoch = epoch;
+
+		alloc(oldHashes.length * 2);
+		epoch = 1;
+
+		for(int j = 0; j < oldHashes.length; j++) {
+			if(oldStamp[j] == oldEpoch) {
+				insert(oldHashes[j], oldParents[j], oldNodes[j], oldTargets[j]);
+			}
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+		epoch++;
+
+		// on stamp overflow, reset the table explicitly
+		if(epoch == Integer.MAX_VALUE) {
+			Arrays.fill(stamp, 0);
+			Arrays.fill(parents, null);
+			Arrays.fill(targets, null);
+			Arrays.fill(nodes, null);
+			epoch = 1;
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package name.kazennikov.glorie;
+
+/**
+ * Per-document parse budget of the GLR parser.
+ *
+ * The budget limits wall-clock parse time, number of GSS nodes and number of performed reductions.
+ * A zero limit means no limit. When a limit is exceeded, the parser doesn't abort, but degrades
+ * to a cheaper mode:
+ * <ul>
+ *     <li>NO_NEW_STARTS - no new parses are started, only current stacks are continued.
+ *     If the degradation beam width is set, the beam pruning is enabled with this width;</li>
+ *     <li>STOPPED - when the limit is exceeded twice, parsing stops. Roots found so far are kept.</li>
+ * </ul>
+ */
+public class ParseBudget {
+
+    /**
+     * Degradation level of the parse
+     */
+    public enum Degradation {
+        NONE,
+        NO_NEW_STARTS,
+        STOPPED
+    }
+
+    long timeLimit;         // wall-clock time limit, ms
+    int maxNodes;           // max number of GSS nodes
+    int maxReductions;      // max number of performed reductions
+    int beamWidth;          // beam width of degraded parse, 0 - don't enable beam pruning
+
+    public ParseBudget() {
+    }
+
+    public ParseBudget(long timeLimit, int maxNodes, int maxReductions) {
+        this.timeLimit = timeLimit;
+        this.maxNodes = maxNodes;
+        this.maxReductions = maxReductions;
+    }
+
+    public long getTimeLimit() {
+        return timeLimit;
+    }
+
+    public void setTimeLimit(long timeLimit) {
+        this.timeLimit = timeLimit;
+    }
+
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    public void setMaxNodes(int maxNodes) {
+        this.maxNodes = maxNodes;
+    }
+
+    public int getMaxReductions() {
+        return maxReductions;
+    }
+
+    public void setMaxReductions(int maxReductions) {
+        this.maxReductions = maxReductions;
+    }
+
+    public int getBeamWidth() {
+        return beamWidth;
+    }
+
+    public void setBeamWidth(int beamWidth) {
+        this.beamWidth = beamWidth;
+    }
+
+    public boolean isUnlimited() {
+        return timeLimit <= 0 && maxNodes <= 0 && maxReductions <= 0;
+    }
+
+    /**
+     * Check the budget
+     * @param startTime parse start time, ms
+     * @param now current time, ms
+     * @param nodes number of GSS nodes
+     * @param reductions number of performed reductions
+     * @param factor limit multiplier
+     * @return true, if any limit multiplied by factor is exceeded
+     */
+    public boolean exceeded(long startTime, long now, int nodes, int reductions, int factor) {
+        return (timeLimit > 0 && now - startTime > timeLimit * factor)
+                || (maxNodes > 0 && nodes > (long) maxNodes * factor)
+                || (maxReductions > 0 && reductions > (long) maxReductions * factor);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ParseBudget{timeLimit=%d, maxNodes=%d, maxReductions=%d, beamWidth=%d}",
+                timeLimit, maxNodes, maxReductions, beamWidth);
+    }
+}
@@ -0,0 +1,318 @@
+package name.kazennikov.glorie;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Runtime profiler of the GLR parser.
+ *
+ * Collects per rule: reduce attempts, successes, reduction cache hits, time spent in the predicates
+ * of the rule and in its reduce action. Per predicate: evaluations, cache hits and number of true results.
+ * Per document: number of words and GSS nodes.
+ *
+ * The profiler is enabled by {@link GLRParser#setProfiler(ParseProfiler)} and aggregates stats
+ * over all parsed documents. It is not thread-safe, use a profiler per parser and {@link #merge(ParseProfiler)}
+ * them for the report.
+ */
+public class ParseProfiler {
+    final CompiledGrammar grammar;
+
+    // per rule stats
+    final long[] ruleAttempts;
+    final long[] ruleSuccesses;
+    final long[] ruleCacheHits;
+    final long[] rulePredNanos;
+    final long[] ruleActionNanos;
+
+    // per predicate stats
+    final long[] predEvals;
+    final long[] predCacheHits;
+    final long[] predTrue;
+
+    // per document stats
+    final TIntArrayList docWords = new TIntArrayList();
+    final TIntArrayList docStateNodes = new TIntArrayList();
+    final TIntArrayList docSymbolNodes = new TIntArrayList();
+
+    public ParseProfiler(CompiledGrammar grammar) {
+        this.grammar = grammar;
+        int rules = grammar.rules.length + 1;
+        ruleAttempts = new long[rules];
+        ruleSuccesses = new long[rules];
+        ruleCacheHits = new long[rules];
+        rulePredNanos = new long[rules];
+        ruleActionNanos = new long[rules];
+
+        int preds = grammar.predicates.size();
+        predEvals = new long[preds];
+        predCacheHits = new long[preds];
+        predTrue = new long[preds];
+    }
+
+    public void attempt(int rule) {
+        ruleAttempts[rule]++;
+    }
+
+    public void success(int rule) {
+        ruleSuccesses[rule]++;
+    }
+
+    public void cacheHit(int rule) {
+        ruleCacheHits[rule]++;
+    }
+
+    public void predTime(int rule, long nanos) {
+        rulePredNanos[rule] += nanos;
+    }
+
+    public void actionTime(int rule, long nanos) {
+        ruleActionNanos[rule] += nanos;
+    }
+
+    /**
+     * Record predicate evaluation
+     * @param predId predicate id
+     * @param cached true, if the result is taken from the cache
+     * @param value predicate result
+     */
+    public void predicate(int predId, boolean cached, boolean value) {
+        predEvals[predId]++;
+
+        if(cached) {
+            predCacheHits[predId]++;
+        }
+
+        if(value) {
+            predTrue[predId]++;
+        }
+    }
+
+    /**
+     * Record GSS size of a parsed document
+     */
+    public void document(int words, int stateNodes, int symbolNodes) {
+        docWords.add(words);
+        docStateNodes.add(stateNodes);
+        docSymbolNodes.add(symbolNodes);
+    }
+
+    public int getDocumentCount() {
+        return docWords.size();
+    }
+
+    /**
+     * Add stats of other profiler of the same grammar
+     */
+    public void merge(ParseProfiler other) {
+        add(ruleAttempts, other.ruleAttempts);
+        add(ruleSuccesses, other.ruleSuccesses);
+        add(ruleCacheHits, other.ruleCacheHits);
+        add(rulePredNanos, other.rulePredNanos);
+        add(ruleActionNanos, other.ruleActionNanos);
+        add(predEvals, other.predEvals);
+        add(predCacheHits, other.predCacheHits);
+        add(predTrue, other.predTrue);
+        docWords.addAll(other.docWords);
+        docStateNodes.addAll(other.docStateNodes);
+        docSymbolNodes.addAll(other.docSymbolNodes);
+    }
+
+    private static void add(long[] dest, long[] src) {
+        for(int i = 0; i < dest.length; i++) {
+            dest[i] += src[i];
+        }
+    }
+
+    public void clear() {
+        clear(ruleAttempts, ruleSuccesses, ruleCacheHits, rulePredNanos, ruleActionNanos, predEvals, predCacheHits, predTrue);
+        docWords.resetQuick();
+        docStateNodes.resetQuick();
+        docSymbolNodes.resetQuick();
+    }
+
+    private static void clear(long[]... arrays) {
+        for(long[] a : arrays) {
+            Arrays.fill(a, 0);
+        }
+    }
+
+    /**
+     * Rule text: LHS -> RHS
+     */
+    String ruleText(int rule) {
+        CompiledGrammar.Rule r = grammar.rules[rule];
+        StringBuilder sb = new StringBuilder();
+        sb.append(grammar.symbols.get(r.lhs).id).append(" ->");
+
+        for(int sym : r.rhs) {
+            sb.append(' ').append(grammar.symbols.get(sym).id);
+        }
+
+        return sb.toString();
+    }
+
+    /**
+     * Write TSV report: rule section, predicate section and document section, each with a header line.
+     * Tabs, line breaks and backslashes in the text columns are escaped by backslash
+     */
+    public void writeTSV(File f) throws IOException {
+        try(PrintWriter pw = new PrintWriter(f, "UTF-8")) {
+            pw.println("rule\tattempts\tsuccesses\tcacheHits\tpredNanos\tactionNanos\tline\ttext");
+
+            for(int i = 0; i < grammar.rules.length; i++) {
+                if(ruleAttempts[i] == 0 && ruleCacheHits[i] == 0)
+                    continue;
+
+                pw.printf(Locale.ROOT, "%d\t%d\t%d\t%d\t%d\t%d\t%s\t%s%n", i, ruleAttempts[i], ruleSuccesses[i], ruleCacheHits[i],
+                        rulePredNanos[i], ruleActionNanos[i], grammar.rules[i].production.sourceLine, escape(ruleText(i)));
+            }
+
+            pw.println();
+            pw.println("predicate\tevals\tcacheHits\ttrue\ttrueRate\ttext");
+
+            for(int i = 0; i < predEvals.length; i++) {
+                if(predEvals[i] == 0)
+                    continue;
+
+                pw.printf(Locale.ROOT, "%d\t%d\t%d\t%d\t%.4f\t%s%n", i, predEvals[i], predCacheHits[i], predTrue[i],
+                        (double) predTrue[i] / predEvals[i], escape(String.valueOf(grammar.predicates.get(i))));
+            }
+
+            pw.println();
+            pw.println("doc\twords\tstateNodes\tsymbolNodes");
+
+            for(int i = 0; i < docWords.size(); i++) {
+                pw.printf(Locale.ROOT, "%d\t%d\t%d\t%d%n", i, docWords.get(i), docStateNodes.get(i), docSymbolNodes.get(i));
+            }
+        }
+    }
+
+    /**
+     * Write JSON report: {"rules": [...], "predicates": [...], "documents": [...]}
+     */
+    public void writeJSON(File f) throws IOException {
+        try(PrintWriter pw = new PrintWriter(f, "UTF-8")) {
+            pw.println("{");
+            pw.println("  \"rules\": [");
+            boolean first = true;
+
+            for(int i = 0; i < grammar.rules.length; i++) {
+                if(ruleAttempts[i] == 0 && ruleCacheHits[i] == 0)
+                    continue;
+
+                if(!first)
+                    pw.println(",");
+                first = false;
+
+                pw.printf(Locale.ROOT, "    {\"id\": %d, \"attempts\": %d, \"successes\": %d, \"cacheHits\": %d, \"predNanos\": %d, \"actionNanos\": %d, \"line\": %d, \"text\": %s}",
+                        i, ruleAttempts[i], ruleSuccesses[i], ruleCacheHits[i], rulePredNanos[i], ruleActionNanos[i],
+                        grammar.rules[i].production.sourceLine, quote(ruleText(i)));
+            }
+
+            pw.println();
+            pw.println("  ],");
+            pw.println("  \"predicates\": [");
+            first = true;
+
+            for(int i = 0; i < predEvals.length; i++) {
+                if(predEvals[i] == 0)
+                    continue;
+
+                if(!first)
+                    pw.println(",");
+                first = false;
+
+                pw.printf(Locale.ROOT, "    {\"id\": %d, \"evals\": %d, \"cacheHits\": %d, \"true\": %d, \"trueRate\": %.4f, \"text\": %s}",
+                        i, predEvals[i], predCacheHits[i], predTrue[i], (double) predTrue[i] / predEvals[i],
+                        quote(String.valueOf(grammar.predicates.get(i))));
+            }
+
+            pw.println();
+            pw.println("  ],");
+            pw.println("  \"documents\": [");
+
+            for(int i = 0; i < docWords.size(); i++) {
+                if(i != 0)
+                    pw.println(",");
+
+                pw.printf(Locale.ROOT, "    {\"words\": %d, \"stateNodes\": %d, \"symbolNodes\": %d}",
+                        docWords.get(i), docStateNodes.get(i), docSymbolNodes.get(i));
+            }
+
+            pw.println();
+            pw.println("  ]");
+            pw.println("}");
+        }
+    }
+
+    /**
+     * Escape a TSV field
+     */
+    static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+
+        for(int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+
+            switch(ch) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(ch);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+
+        for(int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+
+            switch(ch) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if(ch < 0x20) {
+                        sb.append(String.format(Locale.ROOT, "\\u%04x", (int) ch));
+                    } else {
+                        sb.append(ch);
+                    }
+            }
+        }
+
+        sb.append('"');
+        return sb.toString();
+    }
+}
@@ -37,6 +37,24 @@ public abstract class PostBaseScript extends Script {
         }
     }
 
+    /**
+     * Script that adds only symbol spans of the best derivation of each root
+     */
+    public static class Best extends PostBaseScript {
+
+        @Override
+        public Object run() {
+            try {
+                selectBest(1);
+                computeNodes();
+                convert();
+            } catch(ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        }
+    }
+
 	public static class FilterOverlapping extends PostBaseScript {
 
 		@Override
@@ -270,6 +288,42 @@ public abstract class PostBaseScript extends Script {
         }
     }
 
+    /**
+     * Restrict the parse forest to the k-best derivations of each root.
+     * Parses that are not used by any of the chosen derivations are removed from the symbol nodes.
+     * To be called before computeNodes()
+     *
+     * For k = 1 the restricted forest encodes exactly the best derivation. For k > 1 it is an
+     * over-approximation: it keeps the union of the parses used by the k derivations, and
+     * recombining them may encode derivations outside the k best.
+     *
+     * @param k number of derivations per root
+     */
+    public void selectBest(int k) {
+        KBestDerivations kbest = new KBestDerivations(table.g.grammar.useWeights);
+        Map<SymbolNode, Set<GLRParser.ParsingChildrenSet>> chosen = new IdentityHashMap<>();
+
+        for(SymbolNode root : rootNodes) {
+            for(KBestDerivations.Derivation d : kbest.kBest(root, k)) {
+                KBestDerivations.collect(d, chosen);
+            }
+        }
+
+        for(Map.Entry<SymbolNode, Set<GLRParser.ParsingChildrenSet>> e : chosen.entrySet()) {
+            List<GLRParser.ParsingChildrenSet> parses = e.getKey().parseChildren;
+            List<GLRParser.ParsingChildrenSet> kept = new ArrayList<>(e.getValue().size());
+
+            for(GLRParser.ParsingChildrenSet parse : parses) {
+                if(e.getValue().contains(parse)) {
+                    kept.add(parse);
+                }
+            }
+
+            parses.clear();
+            parses.addAll(kept);
+        }
+    }
+
     public void convertSpans() throws ExecutionException {
         try {
             for(SymbolNode node : symbolNodes) {
@@ -0,0 +1,334 @@
+package name.kazennikov.glorie;
+
+import name.kazennikov.fsa.walk.WalkFSABoolean;
+
+import java.util.Arrays;
+
+/**
+ * Single pass prefix scanner over the input lattice.
+ *
+ * Computes start flags of word positions: starts[i] is true, if there is a path from word i
+ * over the input that is accepted by the prefix FSA of the grammar.
+ *
+ * The scanner walks the words left to right and carries all live (start word, FSA state, target word)
+ * entries at once. Terminal symbols of a word (plain, synth and predicate FSA ones) are collected
+ * once per word and then applied to all entries that target the word. Entries are kept in int arrays
+ * and deduplicated per word, so the scan doesn't allocate after warm up.
+ *
+ * Failure links of Aho-Corasick don't fit here: the start word of a match can't be recovered from
+ * the match length in a lattice, so each live state keeps its start word instead.
+ */
+public class PrefixScanner {
+    final GLRParser parser;
+    final WalkFSABoolean fsa;
+
+    // live entries
+    int[] entryStart = new int[64];
+    int[] entryState = new int[64];
+    int[] entryWord = new int[64];
+    int size;
+
+    // entries for the next words, swapped with the live entries after each word
+    int[] nextStart = new int[64];
+    int[] nextState = new int[64];
+    int[] nextWord = new int[64];
+    int nextSize;
+
+    // dedup table of the next entries: entry index + 1, stamped by epoch
+    int[] table = new int[256];
+    int[] stamp = new int[256];
+    int epoch = 1;
+
+    // terminals of the current word and their next words
+    int[] wordSymbols = new int[64];
+    int[] wordNext = new int[64];
+    int wordSize;
+
+    boolean[] starts = new boolean[64];
+    int scanned;    // number of scanned words
+
+    public PrefixScanner(GLRParser parser) {
+        this(parser, parser.grammar.prefixFSA);
+    }
+
+    public PrefixScanner(GLRParser parser, WalkFSABoolean fsa) {
+        this.parser = parser;
+        this.fsa = fsa;
+    }
+
+    /**
+     * Reset the scanner for a new input
+     */
+    public void reset() {
+        size = 0;
+        nextSize = 0;
+        Arrays.fill(starts, 0, Math.min(scanned, starts.length), false);
+        scanned = 0;
+    }
+
+    /**
+     * Check if a parse could start from the word
+     */
+    public boolean isStart(int word) {
+        return word < starts.length && starts[word];
+    }
+
+    /**
+     * Scan a word. All previous words must be already scanned, next words of the word spans
+     * must be resolved
+     *
+     * @param word word index
+     */
+    public void scan(int word) {
+        if(word >= starts.length) {
+            starts = Arrays.copyOf(starts, Math.max(starts.length * 2, word + 1));
+        }
+
+        scanned = Math.max(scanned, word + 1);
+        collectSymbols(word);
+
+        nextSize = 0;
+        nextEpoch();
+
+        // new entry from the word
+        if(fsa.isFinalState(0)) {
+            starts[word] = true;
+        } else {
+            advance(word, 0);
+        }
+
+        for(int i = 0; i < size; i++) {
+            int start = entryStart[i];
+
+            if(starts[start])
+                continue;
+
+            if(entryWord[i] != word) {
+                add(start, entryState[i], entryWord[i]);
+                continue;
+            }
+
+            advance(start, entryState[i]);
+        }
+
+        swap();
+    }
+
+    /**
+     * Walk entry of a start word over the terminals of the current word
+     */
+    private void advance(int start, int state) {
+        for(int j = 0; j < wordSize; j++) {
+            int next = fsa.next(state, wordSymbols[j]);
+
+            if(next == -1)
+                continue;
+
+            if(fsa.isFinalState(next)) {
+                starts[start] = true;
+                return;
+            }
+
+            add(start, next, wordNext[j]);
+        }
+    }
+
+    /**
+     * Collect terminals of the word spans: plain terminals, synth terminals and predicate FSA terminals
+     */
+    private void collectSymbols(int word) {
+        InputData input = parser.inputData;
+        CompiledGrammar grammar = parser.grammar;
+        wordSize = 0;
+
+        for(int i = input.wordStarts.get(word); i < input.wordEnds.get(word); i++) {
+            SymbolSpan ss = input.get(i);
+            if(ss.symbol == -1)
+                continue;
+
+            int next = input.nextWords[ss.id];
+            addSymbol(ss.symbol, next);
+
+            SynthTerminalEvaluator eval = grammar.evaluators[ss.symbol];
+            if(eval == null)
+                continue;
+
+            int synthBaseIndex = parser.baseSynthCacheIndex(ss.id);
+
+            for(int j = 0; j < eval.size(); j++) {
+                byte val = parser.synthCache[synthBaseIndex + j];
+                // need to eval
+                if(val == -1) {
+                    int predId = eval.predIds.get(j);
+                    val = (byte) (parser.predEval.eval(predId, ss)? 1 : 0);
+                    parser.synthCache[synthBaseIndex + j] = val;
+                }
+
+                if(val == 1) {
+                    addSymbol(eval.typeIds.get(j), next);
+                }
+            }
+
+            // walk fsa
+            for(int j = 0; j < eval.accessors.size(); j++) {
+                int accId = eval.accessors.get(j);
+                FeatureAccessor fa = grammar.accessors.get(accId);
+                Object val = fa.get(parser.predEval, ss);
+                if(val == null)
+                    continue;
+
+                int objId = grammar.fsaPredValues.get(val, false);
+                if(objId == 0)
+                    continue;
+
+                int s = grammar.predFSA.next(0, accId);
+                if(s == -1)
+                    continue;
+                s = grammar.predFSA.next(s, objId);
+                if(s == -1)
+                    continue;
+
+                for(int k = grammar.predFSA.stateStart(s); k < grammar.predFSA.stateEnd(s); k++) {
+                    addSymbol(grammar.predFSA.label(k), next);
+                }
+            }
+        }
+    }
+
+    private void addSymbol(int symbol, int next) {
+        if(wordSize == wordSymbols.length) {
+            wordSymbols = Arrays.copyOf(wordSymbols, wordSize * 2);
+            wordNext = Arrays.copyOf(wordNext, wordSize * 2);
+        }
+
+        wordSymbols[wordSize] = symbol;
+        wordNext[wordSize] = next;
+        wordSize++;
+    }
+
+    private static int hash(int start, int state, int word) {
+        int h = start;
+        h = 31 * h + state;
+        h = 31 * h + word;
+        h *= 0x9E3779B1;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Add next entry, if it's not added yet
+     */
+    private void add(int start, int state, int word) {
+        if((nextSize + 1) * 2 > table.length) {
+            rehash();
+        }
+
+        int mask = table.length - 1;
+        int i = hash(start, state, word) & mask;
+
+        while(stamp[i] == epoch) {
+            int e = table[i] - 1;
+            if(nextStart[e] == start && nextState[e] == state && nextWord[e] == word)
+                return;
+            i = (i + 1) & mask;
+        }
+
+        if(nextSize == nextStart.length) {
+            nextStart = Arrays.copyOf(nextStart, nextSize * 2);
+            nextState = Arrays.copyOf(nextState, nextSize * 2);
+            nextWord = Arrays.copyOf(nextWord, nextSize * 2);
+        }
+
+        nextStart[nextSize] = start;
+        nextState[nextSize] = state;
+        nextWord[nextSize] = word;
+        nextSize++;
+
+        stamp[i] = epoch;
+        table[i] = nextSize;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        stamp = new int[table.length];
+        epoch = 1;
+        int mask = table.length - 1;
+
+        for(int e = 0; e < nextSize; e++) {
+            int i = hash(nextStart[e], nextState[e], nextWord[e]) & mask;
+
+            while(stamp[i] == epoch) {
+                i = (i + 1) & mask;
+            }
+
+            stamp[i] = epoch;
+            table[i] = e + 1;
+        }
+    }
+
+    private void nextEpoch() {
+        epoch++;
+
+        // on stamp overflow, reset the table explicitly
+        if(epoch == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            epoch = 1;
+        }
+    }
+
+    private void swap() {
+        int[] t = entryStart;
+        entryStart = nextStart;
+        nextStart = t;
+
+        t = entryState;
+        entryState = nextState;
+        nextState = t;
+
+        t = entryWord;
+        entryWord = nextWord;
+        nextWord = t;
+
+        size = nextSize;
+        nextSize = 0;
+    }
+
+    /**
+     * Min start word of the live entries. Start flags of the words before it are final
+     *
+     * @param limit upper bound
+     */
+    public int minLiveStart(int limit) {
+        int min = limit;
+
+        for(int i = 0; i < size; i++) {
+            if(!starts[entryStart[i]]) {
+                min = Math.min(min, entryStart[i]);
+            }
+        }
+
+        return min;
+    }
+
+    /**
+     * Number of start words among the first words
+     * @param words number of words
+     */
+    public int startCount(int words) {
+        int count = 0;
+
+        for(int i = 0; i < Math.min(words, starts.length); i++) {
+            if(starts[i]) {
+                count++;
+            }
+        }
+
+        return count;
+    }
+
+    /**
+     * Number of live entries
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,211 @@
+package name.kazennikov.glorie;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.Arrays;
+
+/**
+ * Memoized enumeration of GSS reduction paths.
+ *
+ * A reduction path suffix starts at the symbol node of a pending reduction and alternates
+ * symbol and state nodes: [symbol, state, symbol, state, ..., state]. The set of suffixes depends
+ * only on the starting symbol node and the suffix length. While the parser reduces at a word
+ * position, only state nodes of that position receive new children, and the suffixes go strictly
+ * below them, so the suffixes can be shared by all pending reductions of the position.
+ *
+ * The suffixes are enumerated iteratively with an explicit DFS stack and stored as arena slots
+ * in a flat int list. The memo must be cleared before reductions of the next word position.
+ *
+ * The number of suffixes may grow exponentially with the length on dense lattices, so the memo
+ * size is capped. If a suffix set doesn't fit, it isn't memoized and the caller walks the suffixes
+ * directly with walk() and nextPath().
+ *
+ * @author Anton Kazennikov
+ */
+public class ReductionPaths {
+	public static final int NOT_MEMOIZED = -1;
+
+	// default max number of memoized slots
+	public static final int DEFAULT_MAX_SIZE = 1 << 20;
+
+	final GSSArena gss;
+	int maxSize = DEFAULT_MAX_SIZE;
+
+	// (symbol node slot, suffix length) -> entry
+	final TLongIntHashMap entries = new TLongIntHashMap();
+
+	// entry -> offset of the first suffix in paths
+	final TIntArrayList entryOffset = new TIntArrayList();
+
+	// entry -> number of suffixes
+	final TIntArrayList entryCount = new TIntArrayList();
+
+	// suffixes, each of entry length
+	final TIntArrayList paths = new TIntArrayList(1024);
+
+	// DFS stack
+	int[] stack = new int[64];
+	int[] next = new int[64];
+	int depth;
+	int length;
+	boolean found;      // stack holds a complete suffix
+
+	int hits;
+	int overflows;
+
+	public ReductionPaths(GSSArena gss) {
+		this.gss = gss;
+	}
+
+	/**
+	 * Get entry of the path suffixes for given symbol node and length, enumerate them if needed
+	 *
+	 * @param node start symbol node
+	 * @param length suffix length (number of nodes, odd)
+	 * @return entry id, or NOT_MEMOIZED if the suffixes exceed the memo size
+	 */
+	public int suffixes(SymbolNode node, int length) {
+		long key = ((long) node.slot << 32) | length;
+
+		if(entries.containsKey(key)) {
+			hits++;
+			return entries.get(key);
+		}
+
+		int offset = paths.size();
+		int count = 0;
+		walk(node, length);
+
+		while(nextPath()) {
+			if(paths.size() + length > maxSize) {
+				paths.remove(offset, paths.size() - offset);
+				entries.put(key, NOT_MEMOIZED);
+				overflows++;
+				return NOT_MEMOIZED;
+			}
+
+			paths.add(stack, 0, length);
+			count++;
+		}
+
+		int entry = entryOffset.size();
+		entryOffset.add(offset);
+		entryCount.add(count);
+		entries.put(key, entry);
+
+		return entry;
+	}
+
+	/**
+	 * Start a direct walk of the path suffixes, without memoization.
+	 * The suffixes are then iterated by nextPath() and walkNode()
+	 *
+	 * @param node start symbol node
+	 * @param length suffix length
+	 */
+	public void walk(SymbolNode node, int length) {
+		if(stack.length < length) {
+			stack = Arrays.copyOf(stack, length);
+			next = Arrays.copyOf(next, length);
+		}
+
+		this.length = length;
+		depth = 0;
+		found = false;
+		stack[0] = node.slot;
+		next[0] = 0;
+	}
+
+	/**
+	 * Advance the walk to the next suffix
+	 *
+	 * @return false, if there are no more suffixes
+	 */
+	public boolean nextPath() {
+		if(found) {
+			found = false;
+			depth--;
+		}
+
+		while(depth >= 0) {
+			if(depth == length - 1) {
+				found = true;
+				return true;
+			}
+
+			// symbol nodes are at even depth, state nodes at odd depth
+			GSSArena.Edges edges = (depth & 1) == 0? gss.symbolEdges : gss.stateEdges;
+			int slot = stack[depth];
+
+			if(next[depth] < edges.size(slot)) {
+				stack[depth + 1] = edges.get(slot, next[depth]++);
+				depth++;
+				next[depth] = 0;
+			} else {
+				depth--;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Get node of the current suffix of the walk
+	 *
+	 * @param index node index in the suffix
+	 */
+	public StackNode walkNode(int index) {
+		int slot = stack[index];
+		return (index & 1) == 0? gss.symbolNodes[slot] : gss.stateNodes[slot];
+	}
+
+	/**
+	 * Number of suffixes of the entry
+	 */
+	public int count(int entry) {
+		return entryCount.get(entry);
+	}
+
+	/**
+	 * Get node of a suffix
+	 *
+	 * @param entry entry id
+	 * @param length suffix length
+	 * @param path suffix index
+	 * @param index node index in the suffix
+	 */
+	public StackNode node(int entry, int length, int path, int index) {
+		int slot = paths.get(entryOffset.get(entry) + path * length + index);
+		return (index & 1) == 0? gss.symbolNodes[slot] : gss.stateNodes[slot];
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	/**
+	 * Number of suffix sets that weren't memoized as they exceeded the memo size
+	 */
+	public int getOverflows() {
+		return overflows;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public void setMaxSize(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public void clear() {
+		if(entries.isEmpty())
+			return;
+
+		entries.clear();
+		entryOffset.resetQuick();
+		entryCount.resetQuick();
+		paths.resetQuick();
+	}
+}
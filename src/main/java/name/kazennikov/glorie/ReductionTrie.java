@@ -1,105 +1,193 @@
 package name.kazennikov.glorie;
 
-import gnu.trove.list.array.TIntArrayList;
-
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 
 /**
+ * Reduction cache of the GLR parser.
+ *
+ * The trie maps a rule and a sequence of RHS symbol span ids to the result of the reduction.
+ * Root state of rule r is state r. Transitions (state, spanId) -> state are stored in
+ * an open addressing hash table of int arrays, so the lookup doesn't allocate any objects.
+ *
+ * Transitions are invalidated by an epoch counter on clear(), so the trie states and tables
+ * are recycled between documents without reallocation.
+ *
  * Created on 05.01.16.
  *
  * @author Anton Kazennikov
  */
 public class ReductionTrie {
 
-	public static class State {
-		//TIntObjectHashMap<State> next = new TIntObjectHashMap<>();
-		TIntArrayList input = new TIntArrayList(256);
-		List<State> next = new ArrayList<>(256);
+	final int ruleCount;
 
-		public State next(int input) {
-			int pos = this.input.indexOf(input);
-			if(pos == -1)
-				return null;
+	// transition table
+	int[] keyState;
+	int[] keyInput;
+	int[] nextState;
+	int[] stamp;        // stamp[i] == epoch iff i-th slot is used
+	int mask;
+	int size;           // number of used slots
+	int epoch = 1;
 
-			return next.get(pos);
-		}
+	// values[state] - reduction result for the state
+	SymbolSpan[] values;
+	int stateCount;
 
-		public void next(int input, State next) {
-			this.input.add(input);
-			this.next.add(next);
-		}
-
-		public void clear() {
-			input.resetQuick();
-			next.clear();
-		}
 
+	public ReductionTrie(int ruleCount) {
+		this.ruleCount = ruleCount;
+		int capacity = Integer.highestOneBit(Math.max(ruleCount, 512)) * 4;
+		keyState = new int[capacity];
+		keyInput = new int[capacity];
+		nextState = new int[capacity];
+		stamp = new int[capacity];
+		mask = capacity - 1;
+
+		values = new SymbolSpan[Math.max(ruleCount * 2, 1024)];
+		stateCount = ruleCount;
 	}
 
-	//State start;
+	private static int hash(int state, int input) {
+		int h = state * 0x9E3779B1 + input;
+		return h ^ (h >>> 16);
+	}
 
-	State[] starts;
+	/**
+	 * Root state of the rule
+	 * @param ruleId rule id
+	 */
+	public int root(int ruleId) {
+		return ruleId;
+	}
 
-	List<State> states = new ArrayList<>(1024);
-	List<State> free = new ArrayList<>(1024);
+	/**
+	 * Get next state
+	 * @param state source state
+	 * @param input input (symbol span id)
+	 * @return next state, or -1 if there is no such transition
+	 */
+	public int next(int state, int input) {
+		int i = hash(state, input) & mask;
+
+		while(stamp[i] == epoch) {
+			if(keyState[i] == state && keyInput[i] == input)
+				return nextState[i];
+			i = (i + 1) & mask;
+		}
 
-	public ReductionTrie(int ruleCount) {
-		//start = new State();
-		starts = new State[ruleCount];
+		return -1;
 	}
 
-	public State addState() {
-		State state;
-
-		if(!free.isEmpty()) {
-			state = free.get(free.size() - 1);
-			free.remove(free.size() - 1);
-		} else {
-			state = new State();
+	/**
+	 * Get next state, add a new state if there is no such transition
+	 * @param state source state
+	 * @param input input (symbol span id)
+	 * @return next state
+	 */
+	public int add(int state, int input) {
+		int i = hash(state, input) & mask;
+
+		while(stamp[i] == epoch) {
+			if(keyState[i] == state && keyInput[i] == input)
+				return nextState[i];
+			i = (i + 1) & mask;
 		}
 
-		states.add(state);
-		return state;
-	}
+		int s = newState();
+		stamp[i] = epoch;
+		keyState[i] = state;
+		keyInput[i] = input;
+		nextState[i] = s;
+		size++;
 
-	public void clear() {
-		Arrays.fill(starts, null);
-		for(State s : states) {
-			s.clear();
+		if(size * 2 > keyState.length) {
+			rehash();
 		}
 
-		free.addAll(states);
-		states.clear();
+		return s;
 	}
 
-	public void add(TIntArrayList l) {
-
-		State state = starts[l.get(0)];
-		if(state == null) {
-			state = addState();
-			starts[l.get(0)] = state;
+	private int newState() {
+		if(stateCount == values.length) {
+			values = Arrays.copyOf(values, values.length * 2);
 		}
 
-		int pos = 1;
-		while(pos < l.size()) {
-			int input = l.getQuick(pos);
-			State next = state.next(input);
+		return stateCount++;
+	}
 
-			if(next == null) {
-				next = addState();
-				state.next(input, next);
+	private void rehash() {
+		int[] oldState = keyState;
+		int[] oldInput = keyInput;
+		int[] oldNext = nextState;
+		int[] oldStamp = stamp;
+		int oldEpoch = epoch;
+
+		int capacity = oldState.length * 2;
+		keyState = new int[capacity];
+		keyInput = new int[capacity];
+		nextState = new int[capacity];
+		stamp = new int[capacity];
+		mask = capacity - 1;
+		epoch = 1;
+
+		for(int j = 0; j < oldState.length; j++) {
+			if(oldStamp[j] != oldEpoch)
+				continue;
+
+			int i = hash(oldState[j], oldInput[j]) & mask;
+			while(stamp[i] == epoch) {
+				i = (i + 1) & mask;
 			}
 
-			state = next;
-
-			pos++;
+			stamp[i] = epoch;
+			keyState[i] = oldState[j];
+			keyInput[i] = oldInput[j];
+			nextState[i] = oldNext[j];
 		}
 	}
 
+	/**
+	 * Get reduction result stored in the state
+	 * @param state trie state
+	 * @return stored span, or null
+	 */
+	public SymbolSpan get(int state) {
+		return values[state];
+	}
 
+	/**
+	 * Store reduction result in the state
+	 * @param state trie state
+	 * @param span reduction result
+	 */
+	public void put(int state, SymbolSpan span) {
+		values[state] = span;
+	}
 
+	/**
+	 * Number of trie states
+	 */
+	public int size() {
+		return stateCount;
+	}
 
-
+	/**
+	 * Clear the trie. The time is proportional to the number of used states
+	 */
+	public void clear() {
+		if(size == 0 && stateCount == ruleCount)
+			return;
+
+		// values are stored only in non-root states
+		Arrays.fill(values, ruleCount, stateCount, null);
+		stateCount = ruleCount;
+		size = 0;
+		epoch++;
+
+		// on stamp overflow, reset stamps explicitly
+		if(epoch == Integer.MAX_VALUE) {
+			Arrays.fill(stamp, 0);
+			epoch = 1;
+		}
+	}
 }
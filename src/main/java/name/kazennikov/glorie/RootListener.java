@@ -0,0 +1,25 @@
+package name.kazennikov.glorie;
+
+/**
+ * Listener of finalized roots of the GLR parser.
+ *
+ * A root is finalized when the parse frontier has moved past its end: no active state
+ * can extend the root, pack a new parse into it or remove it by a greedy reduction.
+ * So the root can be processed while the parser continues on the rest of the input.
+ *
+ * The root is a view over the GSS arena. In the non-streaming mode, the arena slots are reused
+ * after the parser is cleared, so the root and its parse trees are valid only until clear()
+ * or the next init(). A listener that hands roots to another thread must copy the data it needs
+ * before then. In the streaming mode, released roots are detached from the arena and stay valid.
+ */
+public interface RootListener {
+
+    /**
+     * Called on a finalized root. Roots are emitted in order of their creation within a word position.
+     * The root is removed from the parser roots list after the call
+     *
+     * @param parser parser
+     * @param root finalized root symbol node
+     */
+    public void root(GLRParser parser, SymbolNode root);
+}
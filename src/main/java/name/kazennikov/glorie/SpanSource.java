@@ -0,0 +1,18 @@
+package name.kazennikov.glorie;
+
+import java.util.List;
+
+/**
+ * Source of input spans for {@link GlorieEngine}
+ */
+public interface SpanSource {
+
+    /**
+     * Get input spans for the grammar. Terminal symbols of the spans are resolved
+     * by {@link CompiledGrammar#terminal(String)}, spans of other types should be skipped.
+     *
+     * @param grammar target grammar
+     * @return input spans, in any order
+     */
+    List<SymbolSpan> spans(CompiledGrammar grammar);
+}
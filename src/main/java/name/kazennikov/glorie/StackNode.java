@@ -1,32 +1,34 @@
 package name.kazennikov.glorie;
 
-import java.util.ArrayList;
-import java.util.List;
-
 /**
- * Node of Graph Structured Stack of GLR Parsing algorithm
+ * Node of Graph Structured Stack of GLR Parsing algorithm.
+ *
+ * The node is a view over a slot of the {@link GSSArena}, the edges are stored in the arena
  *
  * @author Anton Kazennikov
  */
 public abstract class StackNode {
 	public int index = -1;
-	protected List<StackNode> children = new ArrayList<>(4);
+	final GSSArena arena;   // arena that stores node edges
+	final int slot;         // slot of the node in the arena
+
+	protected StackNode(GSSArena arena, int slot) {
+		this.arena = arena;
+		this.slot = slot;
+	}
+
     /**
      * Get child node by index
      * @param index
      * @return
      */
-	public StackNode getChild(int index) {
-		return children.get(index);
-	}
+	public abstract StackNode getChild(int index);
 
     /**
      * Get number of childs
      * @return
      */
-    public int childCount() {
-		return children.size();
-	}
+    public abstract int childCount();
 
 
 }
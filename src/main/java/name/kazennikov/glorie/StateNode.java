@@ -4,17 +4,56 @@ package name.kazennikov.glorie;
  * State node of graph structured stack
  */
 public class StateNode extends StackNode {
-	public final int state;
+	public int state;
 	public boolean active;	// indicate that the node is in activeStates list
+	public int minWord;		// min word of the state nodes reachable from this node
 
 
-	public StateNode(int state) {
+	StateNode(GSSArena arena, int slot) {
+		super(arena, slot);
+	}
+
+	/**
+	 * Initialize the node on (re)allocation from the arena
+	 * @param state LR state
+	 */
+	void init(int state) {
 		this.state = state;
+		this.active = false;
+		this.index = -1;
+		this.minWord = Integer.MAX_VALUE;
 	}
 
 	@Override
 	public SymbolNode getChild(int index) {
-		return (SymbolNode) super.getChild(index);
+		return arena.symbolNodes[arena.stateEdges.get(slot, index)];
+	}
+
+	@Override
+	public int childCount() {
+		return arena.stateEdges.size(slot);
+	}
+
+	public void addChild(SymbolNode child) {
+		arena.stateEdges.add(slot, child.slot);
+	}
+
+	public boolean hasChild(SymbolNode child) {
+		return arena.stateEdges.contains(slot, child.slot);
+	}
+
+	/**
+	 * Replace child at given index
+	 */
+	public void setChild(int index, SymbolNode child) {
+		arena.stateEdges.set(slot, index, child.slot);
+	}
+
+	/**
+	 * Keep only first count children
+	 */
+	public void truncateChildren(int count) {
+		arena.stateEdges.truncate(slot, count);
 	}
 
 
@@ -0,0 +1,131 @@
+package name.kazennikov.glorie;
+
+import java.util.Arrays;
+
+/**
+ * Index of GSS state nodes by (word, LR state).
+ *
+ * An open addressing hash table from packed (word, state) keys to state nodes.
+ * The table is cleared by an epoch counter, so clear() doesn't touch the table arrays.
+ *
+ * @author Anton Kazennikov
+ */
+public class StateNodeIndex {
+	long[] keys;
+	StateNode[] nodes;
+	int[] stamp;    // stamp[i] == epoch iff i-th slot is used
+	int mask;
+	int size;
+	int epoch = 1;
+
+	public StateNodeIndex() {
+		this(1024);
+	}
+
+	public StateNodeIndex(int capacity) {
+		capacity = Integer.highestOneBit(Math.max(capacity, 16) - 1) << 1;
+		keys = new long[capacity];
+		nodes = new StateNode[capacity];
+		stamp = new int[capacity];
+		mask = capacity - 1;
+	}
+
+	private static long key(int word, int state) {
+		return ((long) word << 32) | (state & 0xFFFFFFFFL);
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	/**
+	 * Find state node
+	 * @param word word position
+	 * @param state LR state
+	 * @return state node, or null if not found
+	 */
+	public StateNode get(int word, int state) {
+		long key = key(word, state);
+		int i = hash(key) & mask;
+
+		while(stamp[i] == epoch) {
+			if(keys[i] == key)
+				return nodes[i];
+			i = (i + 1) & mask;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Add state node to the index
+	 * @param word word position
+	 * @param node state node
+	 */
+	public void put(int word, StateNode node) {
+		if((size + 1) * 2 > keys.length) {
+			rehash();
+		}
+
+		long key = key(word, node.state);
+		int i = hash(key) & mask;
+
+		while(stamp[i] == epoch) {
+			if(keys[i] == key) {
+				nodes[i] = node;
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+
+		stamp[i] = epoch;
+		keys[i] = key;
+		nodes[i] = node;
+		size++;
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		StateNode[] oldNodes = nodes;
+		int[] oldStamp = stamp;
+		int oldEpoch = epoch;
+
+		int capacity = oldKeys.length * 2;
+		keys = new long[capacity];
+		nodes = new StateNode[capacity];
+		stamp = new int[capacity];
+		mask = capacity - 1;
+		epoch = 1;
+
+		for(int j = 0; j < oldKeys.length; j++) {
+			if(oldStamp[j] != oldEpoch)
+				continue;
+
+			int i = hash(oldKeys[j]) & mask;
+			while(stamp[i] == epoch) {
+				i = (i + 1) & mask;
+			}
+
+			stamp[i] = epoch;
+			keys[i] = oldKeys[j];
+			nodes[i] = oldNodes[j];
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public void clear() {
+		size = 0;
+		epoch++;
+
+		// on stamp overflow, reset the table explicitly
+		if(epoch == Integer.MAX_VALUE) {
+			Arrays.fill(stamp, 0);
+			Arrays.fill(nodes, null);
+			epoch = 1;
+		}
+	}
+}
@@ -7,11 +7,25 @@ import java.util.List;
  * Symbol node of Graph structured stack
  */
 public class SymbolNode extends StackNode {
-	public final SymbolSpan symbol;
+	public SymbolSpan symbol;
+	public int minWord;			// min word of the state nodes reachable from this node
+	public boolean released;	// the node was released from the arena (streaming mode)
 
 
-	public SymbolNode(SymbolSpan symbol) {
+	SymbolNode(GSSArena arena, int slot) {
+		super(arena, slot);
+	}
+
+	/**
+	 * Initialize the node on (re)allocation from the arena
+	 * @param symbol symbol span
+	 */
+	void init(SymbolSpan symbol) {
 		this.symbol = symbol;
+		this.index = -1;
+		this.minWord = Integer.MAX_VALUE;
+		this.released = false;
+		this.parseChildren.clear();
 	}
 
 	// parseChildren[i] is one possible set of children of this symbol node in the parse tree
@@ -21,7 +35,34 @@ public class SymbolNode extends StackNode {
 
 	@Override
 	public StateNode getChild(int index) {
-		return (StateNode) super.getChild(index);
+		return arena.stateNodes[arena.symbolEdges.get(slot, index)];
+	}
+
+	@Override
+	public int childCount() {
+		return arena.symbolEdges.size(slot);
+	}
+
+	public void addChild(StateNode child) {
+		arena.symbolEdges.add(slot, child.slot);
+	}
+
+	public boolean hasChild(StateNode child) {
+		return arena.symbolEdges.contains(slot, child.slot);
+	}
+
+	/**
+	 * Replace child at given index
+	 */
+	public void setChild(int index, StateNode child) {
+		arena.symbolEdges.set(slot, index, child.slot);
+	}
+
+	/**
+	 * Keep only first count children
+	 */
+	public void truncateChildren(int count) {
+		arena.symbolEdges.truncate(slot, count);
 	}
 
 	@Override
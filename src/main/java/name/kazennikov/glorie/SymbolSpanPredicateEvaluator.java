@@ -3,11 +3,16 @@ package name.kazennikov.glorie;
 import name.kazennikov.alphabet.Alphabet;
 import name.kazennikov.fsa.walk.WalkFSABoolean;
 
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.List;
 
 /**
  * Symbol span predicate evaluator
+ *
+ * Predicate results are cached per (span, predicate). By default the cache has a row for each input span.
+ * In the windowed mode (used by the streaming parser) the cache has a fixed number of rows, a row
+ * is tagged by the span id and is reset when it's taken by another span.
  */
 public class SymbolSpanPredicateEvaluator {
     CompiledGrammar grammar;
@@ -20,6 +25,13 @@ public class SymbolSpanPredicateEvaluator {
     Alphabet<Object> objectAlphabet;
     WalkFSABoolean fsa;
 
+    int[] rowSpans;     // span id of each cache row, windowed mode only
+    int[] rowStamp;     // a row is valid iff its stamp is the current epoch
+    int rowMask;
+    int epoch = 1;
+
+    ParseProfiler profiler;     // null, if profiling is disabled
+
     public SymbolSpanPredicateEvaluator(CompiledGrammar grammar, InputData input) {
         this.grammar = grammar;
         this.input = input;
@@ -34,9 +46,64 @@ public class SymbolSpanPredicateEvaluator {
 
     }
 
+    /**
+     * Create evaluator with windowed predicate cache
+     * @param window number of cache rows, rounded up to a power of two
+     */
+    public SymbolSpanPredicateEvaluator(CompiledGrammar grammar, InputData input, int window) {
+        this(grammar, input);
+        window = Integer.highestOneBit(Math.max(window, 2) - 1) << 1;
+        rowSpans = new int[window];
+        rowStamp = new int[window];
+        rowMask = window - 1;
+        predicateCache = new BitSet(2 * window * predicates.size());
+    }
+
+
+    public boolean isWindowed() {
+        return rowSpans != null;
+    }
+
+    /**
+     * Reset the evaluator for a new input. In the windowed mode the rows are invalidated by epoch,
+     * otherwise only the used part of the cache is cleared
+     */
+    public void reset(InputData input) {
+        this.input = input;
+
+        if(rowSpans != null) {
+            epoch++;
+
+            // on stamp overflow, reset the stamps explicitly
+            if(epoch == Integer.MAX_VALUE) {
+                Arrays.fill(rowStamp, 0);
+                epoch = 1;
+            }
+        } else {
+            predicateCache.clear();
+        }
+    }
 
     public int bitIndex(int predId, int spanId) {
-        return 2*(spanId * predicates.size() + predId);
+        int row = rowSpans == null? spanId : spanId & rowMask;
+        return 2*(row * predicates.size() + predId);
+    }
+
+    /**
+     * Take cache row of the span in the windowed mode
+     */
+    private void checkRow(int spanId) {
+        if(rowSpans == null)
+            return;
+
+        int row = spanId & rowMask;
+
+        if(rowSpans[row] != spanId || rowStamp[row] != epoch) {
+            rowSpans[row] = spanId;
+            rowStamp[row] = epoch;
+            int start = bitIndex(0, spanId);
+            predicateCache.clear(start, start + 2 * predicates.size());
+        }
     }
 
     public boolean eval(SymbolSpanPredicate pred, SymbolSpan span) {
@@ -45,16 +112,38 @@ public class SymbolSpanPredicateEvaluator {
 
 
     public boolean eval(int predicateId, SymbolSpan span) {
+        checkRow(span.id);
         int index = bitIndex(predicateId, span.id);
 
-        if(predicateCache.get(index))
-            return predicateCache.get(index + 1);
+        if(predicateCache.get(index)) {
+            boolean value = predicateCache.get(index + 1);
+
+            if(profiler != null) {
+                profiler.predicate(predicateId, true, value);
+            }
 
+            return value;
+        }
+
+        boolean value = evalUncached(predicateId, span, index);
+
+        if(profiler != null) {
+            profiler.predicate(predicateId, false, value);
+        }
+
+        return value;
+    }
+
+    /**
+     * Evaluate predicate that isn't in the cache and cache the result
+     */
+    private boolean evalUncached(int predicateId, SymbolSpan span, int index) {
         Grammar.PredInfo pi = predInfos[predicateId];
 
         if(pi.fsa) {
             FeatureAccessor fa = faAlphabet.get(pi.fa);
             Object o = fa.get(this, span);
+            checkRow(span.id); // the accessor could evaluate predicates of other spans
 
             if(o == null) {
                 // set all predicate with this equals to 'false'
@@ -98,6 +187,7 @@ public class SymbolSpanPredicateEvaluator {
 
 
         boolean value = eval(predicates.get(predicateId), span);
+        checkRow(span.id);
         setResult(pi, index, span.id, value);
         return value;
     }
@@ -139,6 +229,14 @@ public class SymbolSpanPredicateEvaluator {
         return value;
     }
 
+	public ParseProfiler getProfiler() {
+		return profiler;
+	}
+
+	public void setProfiler(ParseProfiler profiler) {
+		this.profiler = profiler;
+	}
+
 	public InputData getInput() {
 		return input;
 	}
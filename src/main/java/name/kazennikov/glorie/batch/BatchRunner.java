@@ -0,0 +1,243 @@
+package name.kazennikov.glorie.batch;
+
+import name.kazennikov.glorie.GlorieEngine;
+import name.kazennikov.glorie.ParseBudget;
+import name.kazennikov.glorie.SymbolNode;
+import name.kazennikov.glorie.corpus.CorpusReader;
+import name.kazennikov.glorie.gen.Lattice;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless batch runner: parses a corpus by a grammar on a worker pool.
+ *
+ * The grammar is compiled and its GLR table is built once, each worker parses on its own copy of the engine.
+ * Documents are read by the calling thread and passed to the workers through a bounded queue,
+ * so the memory doesn't depend on the corpus size.
+ *
+ * <pre>
+ * BatchRunner --grammar file [--input dir|file|-] [--out file|-] [--threads N] [--slow N] [--time-limit ms]
+ * </pre>
+ * The input is a directory or a file of documents in {@link name.kazennikov.glorie.gen.LatticeFormat},
+ * a binary corpus file of {@link name.kazennikov.glorie.corpus.CorpusFormat}, or stdin ('-', default). Results are written as TSV by {@link ResultSink.TSV}, the results are discarded
+ * if the output isn't set. Throughput, latency percentiles and the slowest documents are printed to stderr.
+ */
+public class BatchRunner {
+    private static final Logger logger = Logger.getLogger(BatchRunner.class);
+
+    static final Lattice END = new Lattice(null, null, null);
+
+    final GlorieEngine engine;
+    final int threads;
+    final ResultSink sink;
+    final BatchStats stats;
+
+    public BatchRunner(GlorieEngine engine, int threads, ResultSink sink, BatchStats stats) {
+        if(threads < 1)
+            throw new IllegalArgumentException("Thread count must be at least 1: " + threads);
+
+        this.engine = engine;
+        this.threads = threads;
+        this.sink = sink;
+        this.stats = stats;
+    }
+
+    /**
+     * Parse all documents of the source
+     */
+    public void run(LatticeSource source) throws Exception {
+        BlockingQueue<Lattice> queue = new ArrayBlockingQueue<>(threads * 4);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Worker> workers = new ArrayList<>(threads);
+        List<Future<?>> futures = new ArrayList<>(threads);
+
+        for(int i = 0; i < threads; i++) {
+            workers.add(new Worker(i == 0? engine : engine.copy(), queue));
+        }
+
+        stats.start();
+
+        try {
+            for(Worker w : workers) {
+                futures.add(pool.submit(w));
+            }
+
+            Lattice doc;
+
+            while((doc = source.next()) != null) {
+                if(!offer(queue, doc, futures)) {
+                    throw new IllegalStateException("All workers have terminated", failure(futures));
+                }
+            }
+        } finally {
+            for(int i = 0; i < threads; i++) {
+                if(!offer(queue, END, futures))
+                    break;
+            }
+
+            pool.shutdown();
+            pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            stats.finish();
+        }
+    }
+
+    /**
+     * Put a document to the queue while at least one worker is alive
+     *
+     * @return false, if all workers have terminated
+     */
+    static boolean offer(BlockingQueue<Lattice> queue, Lattice doc, List<Future<?>> futures) throws InterruptedException {
+        while(!queue.offer(doc, 100, TimeUnit.MILLISECONDS)) {
+            boolean alive = false;
+
+            for(Future<?> f : futures) {
+                if(!f.isDone()) {
+                    alive = true;
+                    break;
+                }
+            }
+
+            if(!alive)
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Get the failure of the first failed worker
+     */
+    static Throwable failure(List<Future<?>> futures) throws InterruptedException {
+        for(Future<?> f : futures) {
+            try {
+                f.get();
+            } catch(ExecutionException e) {
+                return e.getCause();
+            }
+        }
+
+        return null;
+    }
+
+    class Worker implements Runnable {
+        final GlorieEngine engine;
+        final BlockingQueue<Lattice> queue;
+
+        Worker(GlorieEngine engine, BlockingQueue<Lattice> queue) {
+            this.engine = engine;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Lattice doc;
+
+                while((doc = queue.take()) != END) {
+                    parse(doc);
+                }
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        void parse(Lattice doc) {
+            try {
+                long start = System.nanoTime();
+                List<SymbolNode> roots = engine.parse(doc.getText(), null, doc);
+                long time = System.nanoTime() - start;
+
+                sink.write(doc, roots);
+                stats.document(doc.getId(), time, doc.size(), roots.size());
+            } catch(Throwable e) {
+                // errors of a deep or ambiguous document, e.g. StackOverflowError, don't stop the worker
+                logger.error("Failed to parse document " + doc.getId(), e);
+                stats.error();
+            } finally {
+                engine.clear();
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> opts = new HashMap<>();
+
+        for(int i = 0; i + 1 < args.length; i += 2) {
+            opts.put(args[i].startsWith("--")? args[i].substring(2) : args[i], args[i + 1]);
+        }
+
+        if(args.length % 2 != 0 || !opts.containsKey("grammar")) {
+            System.err.println("Usage: BatchRunner --grammar file [--input dir|file|-] [--out file|-] [--threads N] [--slow N] [--time-limit ms]");
+            return;
+        }
+
+        int threads = opts.containsKey("threads")? Integer.parseInt(opts.get("threads")) : Runtime.getRuntime().availableProcessors();
+
+        if(threads < 1) {
+            System.err.println("--threads must be at least 1, got " + threads);
+            return;
+        }
+
+        GlorieEngine engine = GlorieEngine.compile(new File(opts.get("grammar")).toURI().toURL());
+
+        if(opts.containsKey("time-limit")) {
+            ParseBudget budget = new ParseBudget();
+            budget.setTimeLimit(Long.parseLong(opts.get("time-limit")));
+            engine.getParser().setBudget(budget);
+        }
+
+        int slow = opts.containsKey("slow")? Integer.parseInt(opts.get("slow")) : 10;
+
+        String out = opts.get("out");
+        ResultSink sink;
+
+        if(out == null) {
+            sink = new ResultSink.Null();
+        } else if(out.equals("-")) {
+            sink = new ResultSink.TSV(new PrintWriter(new OutputStreamWriter(System.out, Charset.forName("UTF-8"))));
+        } else {
+            sink = new ResultSink.TSV(new PrintWriter(new File(out), "UTF-8"));
+        }
+
+        String input = opts.containsKey("input")? opts.get("input") : "-";
+        LatticeSource source;
+
+        if(input.equals("-")) {
+            source = new LatticeSource.Text(System.in);
+        } else if(new File(input).isDirectory()) {
+            source = LatticeSource.Text.directory(new File(input));
+        } else if(CorpusReader.isCorpus(new File(input))) {
+            source = new LatticeSource.Corpus(new CorpusReader(new File(input)));
+        } else {
+            List<File> files = new ArrayList<>();
+            files.add(new File(input));
+            source = new LatticeSource.Text(files);
+        }
+
+        BatchStats stats = new BatchStats(slow);
+
+        try {
+            new BatchRunner(engine, threads, sink, stats).run(source);
+        } finally {
+            source.close();
+            sink.close();
+        }
+
+        stats.print(System.err);
+    }
+}
@@ -0,0 +1,129 @@
+package name.kazennikov.glorie.batch;
+
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Throughput and latency stats of a batch run. Thread-safe
+ */
+public class BatchStats {
+
+    /**
+     * Parse time of a document
+     */
+    public static class DocTime {
+        public final String id;
+        public final long nanos;
+        public final int spans;
+
+        public DocTime(String id, long nanos, int spans) {
+            this.id = id;
+            this.nanos = nanos;
+            this.spans = spans;
+        }
+    }
+
+    static final Comparator<DocTime> BY_TIME = new Comparator<DocTime>() {
+        @Override
+        public int compare(DocTime o1, DocTime o2) {
+            return Long.compare(o1.nanos, o2.nanos);
+        }
+    };
+
+    final int slowCount;
+    final TLongArrayList times = new TLongArrayList();
+    final PriorityQueue<DocTime> slow = new PriorityQueue<>(16, BY_TIME);   // min heap of the slowest documents
+    long spans;
+    long roots;
+    int errors;
+    long startTime;
+    long endTime;
+
+    public BatchStats(int slowCount) {
+        this.slowCount = slowCount;
+    }
+
+    public synchronized void start() {
+        startTime = System.nanoTime();
+    }
+
+    public synchronized void finish() {
+        endTime = System.nanoTime();
+    }
+
+    public synchronized void document(String id, long nanos, int spans, int roots) {
+        times.add(nanos);
+        this.spans += spans;
+        this.roots += roots;
+
+        if(slowCount > 0 && (slow.size() < slowCount || slow.peek().nanos < nanos)) {
+            slow.add(new DocTime(id, nanos, spans));
+
+            if(slow.size() > slowCount) {
+                slow.poll();
+            }
+        }
+    }
+
+    public synchronized void error() {
+        errors++;
+    }
+
+    public synchronized int getDocumentCount() {
+        return times.size();
+    }
+
+    public synchronized int getErrorCount() {
+        return errors;
+    }
+
+    /**
+     * Latency percentile, ns
+     * @param p percentile, 0..100
+     */
+    public synchronized long percentile(double p) {
+        if(times.isEmpty())
+            return 0;
+
+        TLongArrayList sorted = new TLongArrayList(times);
+        sorted.sort();
+        int index = (int) Math.ceil(p / 100.0 * sorted.size()) - 1;
+        return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1)));
+    }
+
+    /**
+     * Slowest documents, slowest first
+     */
+    public synchronized List<DocTime> slowest() {
+        List<DocTime> l = new ArrayList<>(slow);
+        Collections.sort(l, Collections.reverseOrder(BY_TIME));
+        return l;
+    }
+
+    public synchronized void print(PrintStream out) {
+        double seconds = (endTime - startTime) / 1e9;
+
+        out.printf("Documents: %d, errors: %d, spans: %d, roots: %d, time: %.3f s%n",
+                times.size(), errors, spans, roots, seconds);
+        out.printf("Throughput: %.1f docs/s, %.1f spans/s%n",
+                times.size() / seconds, spans / seconds);
+        out.printf("Latency, ms: p50 %.3f, p90 %.3f, p99 %.3f, max %.3f%n",
+                percentile(50) / 1e6, percentile(90) / 1e6, percentile(99) / 1e6, percentile(100) / 1e6);
+
+        List<DocTime> slowest = slowest();
+
+        if(!slowest.isEmpty()) {
+            out.println("Slowest documents:");
+
+            for(DocTime d : slowest) {
+                out.printf("  %s\t%.3f ms\t%d spans%n", d.id, d.nanos / 1e6, d.spans);
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package name.kazennikov.glorie.batch;
+
+import name.kazennikov.glorie.corpus.CorpusReader;
+import name.kazennikov.glorie.gen.Lattice;
+import name.kazennikov.glorie.gen.LatticeFormat;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Source of documents for the batch runner
+ */
+public interface LatticeSource extends Closeable {
+
+    /**
+     * Read next document
+     * @return document, or null at the end of the source
+     */
+    Lattice next() throws IOException;
+
+    /**
+     * Documents in {@link LatticeFormat} from a stream, or from a list of files in order
+     */
+    class Text implements LatticeSource {
+        final List<File> files;
+        int fileIndex;
+        BufferedReader reader;
+
+        public Text(InputStream s) {
+            this.files = new ArrayList<>();
+            this.reader = new BufferedReader(new InputStreamReader(s, Charset.forName("UTF-8")));
+        }
+
+        public Text(List<File> files) {
+            this.files = files;
+        }
+
+        /**
+         * Source of all files of a directory, in name order
+         */
+        public static Text directory(File dir) throws IOException {
+            File[] files = dir.listFiles();
+
+            if(files == null)
+                throw new IOException("Not a directory: " + dir);
+
+            Arrays.sort(files);
+            List<File> l = new ArrayList<>(files.length);
+
+            for(File f : files) {
+                if(f.isFile() && !f.isHidden()) {
+                    l.add(f);
+                }
+            }
+
+            return new Text(l);
+        }
+
+        @Override
+        public Lattice next() throws IOException {
+            while(true) {
+                if(reader == null) {
+                    if(fileIndex == files.size())
+                        return null;
+
+                    reader = new BufferedReader(new InputStreamReader(new FileInputStream(files.get(fileIndex++)), Charset.forName("UTF-8")));
+                }
+
+                Lattice l = LatticeFormat.read(reader);
+
+                if(l != null)
+                    return l;
+
+                reader.close();
+                reader = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(reader != null) {
+                reader.close();
+                reader = null;
+            }
+        }
+    }
+
+    /**
+     * Documents of a binary corpus, see {@link name.kazennikov.glorie.corpus.CorpusFormat}
+     */
+    class Corpus implements LatticeSource {
+        final CorpusReader reader;
+        int doc;
+
+        public Corpus(CorpusReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Lattice next() throws IOException {
+            return doc < reader.size()? reader.getDocument(doc++) : null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package name.kazennikov.glorie.batch;
+
+import name.kazennikov.glorie.SymbolNode;
+import name.kazennikov.glorie.gen.Lattice;
+import name.kazennikov.glorie.gen.LatticeFormat;
+
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Output of the batch runner. Called from the worker threads, so implementations must be thread-safe
+ */
+public interface ResultSink {
+
+    /**
+     * Write parse results of a document. The roots are valid only during the call
+     * @param doc source document
+     * @param roots root nodes of the parse
+     */
+    void write(Lattice doc, List<SymbolNode> roots);
+
+    void close();
+
+    /**
+     * Discards the results
+     */
+    class Null implements ResultSink {
+        @Override
+        public void write(Lattice doc, List<SymbolNode> roots) {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Writes a line per root: document id, type, start and end offsets, separated by tabs
+     */
+    class TSV implements ResultSink {
+        final PrintWriter pw;
+
+        public TSV(PrintWriter pw) {
+            this.pw = pw;
+        }
+
+        @Override
+        public void write(Lattice doc, List<SymbolNode> roots) {
+            // format outside the lock, the sink is shared by the workers
+            StringBuilder sb = new StringBuilder();
+            String id = LatticeFormat.escape(doc.getId());
+
+            for(SymbolNode root : roots) {
+                sb.append(id).append('\t')
+                        .append(root.symbol.type).append('\t')
+                        .append(root.symbol.start).append('\t')
+                        .append(root.symbol.end).append('\n');
+            }
+
+            synchronized(this) {
+                pw.print(sb);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            pw.close();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package name.kazennikov.glorie.corpus;
+
+/**
+ * Columnar binary corpus format of pre-annotated documents.
+ *
+ * All numbers are big-endian. Strings (document ids, span types, feature names and string values)
+ * are stored once in the shared dictionary and referenced by id.
+ * <pre>
+ * header:     int magic, int version, int docCount, long dictOffset, long indexOffset
+ * document:   int idRef
+ *             int textLength, char[textLength] text (UTF-16)
+ *             int spanCount
+ *             int[spanCount] type ids
+ *             int[spanCount] start offsets
+ *             int[spanCount] end offsets
+ *             int[spanCount + 1] feature offsets: features of i-th span are [offsets[i], offsets[i + 1])
+ *             int[featureCount] feature name ids
+ *             byte[featureCount] feature value kinds
+ *             int[featureCount] feature values: dictionary id of a string, value of an integer,
+ *                                    0/1 of a boolean, index of a long or a double in the wide values, 0 for null
+ *             int wideCount, long[wideCount] wide values: long values and double bits
+ * dictionary: int count, then per string: int length, char[length]
+ * index:      long[docCount] document offsets
+ * </pre>
+ * The text is stored as UTF-16, so the reader exposes it as a view of the mapped file without decoding.
+ * Feature values are read back with the same type, so the predicates behave as on the source documents.
+ * Values of other types can't be stored.
+ */
+public class CorpusFormat {
+    public static final int MAGIC = 0x474C5243;     // GLRC
+    public static final int VERSION = 2;
+    public static final int HEADER_SIZE = 4 + 4 + 4 + 8 + 8;
+
+    // feature value kinds
+    public static final byte STRING = 0;
+    public static final byte INTEGER = 1;
+    public static final byte NULL = 2;
+    public static final byte LONG = 3;
+    public static final byte DOUBLE = 4;
+    public static final byte BOOLEAN = 5;
+}
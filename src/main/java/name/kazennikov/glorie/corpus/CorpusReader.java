@@ -0,0 +1,290 @@
+package name.kazennikov.glorie.corpus;
+
+import gate.FeatureMap;
+import gate.util.SimpleFeatureMapImpl;
+import name.kazennikov.glorie.CompiledGrammar;
+import name.kazennikov.glorie.SymbolSpan;
+import name.kazennikov.glorie.gen.Lattice;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Reader of the binary corpus, see {@link CorpusFormat}.
+ *
+ * The file is memory-mapped, the dictionary is decoded once on open. Document texts are views of the mapped file,
+ * spans are decoded on request. Strings of the spans (types, feature names and values) are shared
+ * dictionary instances. A single mapping limits the file size to 2 GB.
+ *
+ * The reader is thread-safe, as all reads are absolute.
+ */
+public class CorpusReader implements Closeable {
+    final RandomAccessFile file;
+    final MappedByteBuffer buffer;
+    final int docCount;
+    final String[] dict;
+    final long[] docOffsets;
+
+    // terminal symbol ids of dictionary strings for the last grammar
+    CompiledGrammar grammar;
+    int[] terminals;
+
+    public CorpusReader(File f) throws IOException {
+        file = new RandomAccessFile(f, "r");
+
+        try {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+
+            if(buffer.getInt(0) != CorpusFormat.MAGIC)
+                throw new IOException("Not a corpus file: " + f);
+
+            if(buffer.getInt(4) != CorpusFormat.VERSION)
+                throw new IOException("Unsupported corpus version " + buffer.getInt(4) + ": " + f);
+
+            docCount = buffer.getInt(8);
+            dict = readDict(pos(buffer.getLong(12)));
+            docOffsets = new long[docCount];
+            int index = pos(buffer.getLong(20));
+
+            for(int i = 0; i < docCount; i++) {
+                docOffsets[i] = buffer.getLong(index + 8 * i);
+            }
+        } catch(IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Check if the file is a corpus file
+     */
+    public static boolean isCorpus(File f) {
+        try(DataInputStream in = new DataInputStream(new FileInputStream(f))) {
+            return in.readInt() == CorpusFormat.MAGIC;
+        } catch(IOException e) {
+            return false;
+        }
+    }
+
+    static int pos(long offset) throws IOException {
+        if(offset > Integer.MAX_VALUE)
+            throw new IOException("Corpus file is too large: offset " + offset);
+
+        return (int) offset;
+    }
+
+    String[] readDict(int pos) {
+        String[] dict = new String[buffer.getInt(pos)];
+        pos += 4;
+
+        for(int i = 0; i < dict.length; i++) {
+            int length = buffer.getInt(pos);
+            pos += 4;
+
+            char[] chars = new char[length];
+
+            for(int j = 0; j < length; j++) {
+                chars[j] = buffer.getChar(pos + 2 * j);
+            }
+
+            dict[i] = new String(chars);
+            pos += 2 * length;
+        }
+
+        return dict;
+    }
+
+    public int size() {
+        return docCount;
+    }
+
+    int docPos(int doc) {
+        return (int) docOffsets[doc];
+    }
+
+    public String getId(int doc) {
+        return dict[buffer.getInt(docPos(doc))];
+    }
+
+    /**
+     * Document text, a view of the mapped file
+     */
+    public CharSequence getText(int doc) {
+        int pos = docPos(doc) + 4;
+        int length = buffer.getInt(pos);
+
+        ByteBuffer b = buffer.duplicate();
+        b.position(pos + 4);
+        b.limit(pos + 4 + 2 * length);
+        return b.slice().asCharBuffer();
+    }
+
+    /**
+     * Position of the span count of the document
+     */
+    int spansPos(int doc) {
+        int pos = docPos(doc) + 4;
+        return pos + 4 + 2 * buffer.getInt(pos);
+    }
+
+    public int spanCount(int doc) {
+        return buffer.getInt(spansPos(doc));
+    }
+
+    /**
+     * Get document spans, unresolved (symbol = -1)
+     */
+    public List<SymbolSpan> getSpans(int doc) {
+        return spans(doc, null);
+    }
+
+    /**
+     * Get parser input of the document for the grammar: spans of the grammar input types
+     * with resolved terminal symbols, sorted
+     */
+    public List<SymbolSpan> getSpans(int doc, CompiledGrammar grammar) {
+        List<SymbolSpan> spans = spans(doc, terminals(grammar));
+        Collections.sort(spans, SymbolSpan.COMPARATOR);
+        return spans;
+    }
+
+    /**
+     * Terminal ids of the dictionary strings for the grammar
+     */
+    synchronized int[] terminals(CompiledGrammar grammar) {
+        if(this.grammar != grammar) {
+            int[] t = new int[dict.length];
+
+            for(int i = 0; i < dict.length; i++) {
+                t[i] = grammar.hasInput(dict[i])? grammar.terminal(dict[i]) : -1;
+            }
+
+            this.grammar = grammar;
+            this.terminals = t;
+        }
+
+        return terminals;
+    }
+
+    /**
+     * Decode spans of a document
+     * @param doc document index
+     * @param terminals terminal ids of dictionary strings, spans of other types are skipped. Null - decode all spans
+     */
+    List<SymbolSpan> spans(int doc, int[] terminals) {
+        int pos = spansPos(doc);
+        int n = buffer.getInt(pos);
+
+        int types = pos + 4;
+        int starts = types + 4 * n;
+        int ends = starts + 4 * n;
+        int featOffsets = ends + 4 * n;
+        int featCount = buffer.getInt(featOffsets + 4 * n);
+        int names = featOffsets + 4 * (n + 1);
+        int kinds = names + 4 * featCount;
+        int values = kinds + featCount;
+        int wides = values + 4 * featCount + 4;
+
+        List<SymbolSpan> spans = new ArrayList<>(n);
+
+        for(int i = 0; i < n; i++) {
+            int type = buffer.getInt(types + 4 * i);
+            int symbol = terminals == null? -1 : terminals[type];
+
+            if(terminals != null && symbol == -1)
+                continue;
+
+            int from = buffer.getInt(featOffsets + 4 * i);
+            int to = buffer.getInt(featOffsets + 4 * (i + 1));
+            FeatureMap features = new SimpleFeatureMapImpl();
+
+            for(int j = from; j < to; j++) {
+                features.put(dict[buffer.getInt(names + 4 * j)], value(buffer.get(kinds + j), buffer.getInt(values + 4 * j), wides));
+            }
+
+            spans.add(new SymbolSpan(symbol, dict[type], -1, buffer.getInt(starts + 4 * i), buffer.getInt(ends + 4 * i), features, null, 1.0));
+        }
+
+        return spans;
+    }
+
+    /**
+     * Decode feature value
+     * @param kind value kind
+     * @param value value column entry
+     * @param wides position of the wide values of the document
+     */
+    Object value(byte kind, int value, int wides) {
+        switch(kind) {
+            case CorpusFormat.STRING:
+                return dict[value];
+            case CorpusFormat.INTEGER:
+                return value;
+            case CorpusFormat.NULL:
+                return null;
+            case CorpusFormat.BOOLEAN:
+                return value != 0;
+            case CorpusFormat.LONG:
+                return buffer.getLong(wides + 8 * value);
+            case CorpusFormat.DOUBLE:
+                return Double.longBitsToDouble(buffer.getLong(wides + 8 * value));
+            default:
+                throw new IllegalStateException("Unknown feature value kind: " + kind);
+        }
+    }
+
+    /**
+     * Get document as a lattice. The spans are decoded on request
+     */
+    public Lattice getDocument(final int doc) {
+        return new Lattice(getId(doc), getText(doc), null) {
+            @Override
+            public List<SymbolSpan> getSpans() {
+                return CorpusReader.this.getSpans(doc);
+            }
+
+            @Override
+            public int size() {
+                return spanCount(doc);
+            }
+
+            @Override
+            public List<SymbolSpan> spans(CompiledGrammar grammar) {
+                return CorpusReader.this.getSpans(doc, grammar);
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    /**
+     * Print corpus summary
+     */
+    public static void main(String[] args) throws Exception {
+        if(args.length != 1) {
+            System.err.println("Usage: CorpusReader corpus");
+            return;
+        }
+
+        try(CorpusReader r = new CorpusReader(new File(args[0]))) {
+            long spans = 0;
+            long chars = 0;
+
+            for(int i = 0; i < r.size(); i++) {
+                spans += r.spanCount(i);
+                chars += r.getText(i).length();
+            }
+
+            System.out.printf("Documents: %d, spans: %d, chars: %d, dictionary: %d strings%n", r.size(), spans, chars, r.dict.length);
+        }
+    }
+}
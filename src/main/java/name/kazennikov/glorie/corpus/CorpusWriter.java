@@ -0,0 +1,200 @@
+package name.kazennikov.glorie.corpus;
+
+import com.google.common.io.CountingOutputStream;
+import gnu.trove.list.array.TByteArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import name.kazennikov.glorie.SymbolSpan;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writer of the binary corpus, see {@link CorpusFormat}.
+ *
+ * Documents are written sequentially, the dictionary and the document index are written on close().
+ */
+public class CorpusWriter implements Closeable {
+    final File file;
+    final CountingOutputStream counter;     // DataOutputStream.size() overflows on large files
+    final DataOutputStream out;
+
+    final TObjectIntHashMap<String> dictIndex = new TObjectIntHashMap<>(1024, 0.5f, -1);
+    final List<String> dict = new ArrayList<>();
+    final TLongArrayList docOffsets = new TLongArrayList();
+
+    // feature columns of the current document
+    final TIntArrayList featureOffsets = new TIntArrayList();
+    final TIntArrayList featureNames = new TIntArrayList();
+    final TByteArrayList featureKinds = new TByteArrayList();
+    final TIntArrayList featureValues = new TIntArrayList();
+    final TLongArrayList wideValues = new TLongArrayList();
+
+    public CorpusWriter(File file) throws IOException {
+        this.file = file;
+        this.counter = new CountingOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+        this.out = new DataOutputStream(counter);
+
+        // header is patched on close
+        out.writeInt(CorpusFormat.MAGIC);
+        out.writeInt(CorpusFormat.VERSION);
+        out.writeInt(0);
+        out.writeLong(0);
+        out.writeLong(0);
+    }
+
+    int string(String s) {
+        int id = dictIndex.get(s);
+
+        if(id == -1) {
+            id = dict.size();
+            dict.add(s);
+            dictIndex.put(s, id);
+        }
+
+        return id;
+    }
+
+    /**
+     * Add document
+     * @param id document id
+     * @param text document text
+     * @param spans document spans, their symbols and ids are ignored
+     * @throws IllegalArgumentException if a feature name isn't a string, or a feature value isn't
+     * a string, an integer, a long, a double, a boolean or null. The document isn't added then
+     */
+    public void add(String id, CharSequence text, List<SymbolSpan> spans) throws IOException {
+        // feature columns, collected in a single pass over each feature map.
+        // They are validated before anything is written, so a rejected document leaves the corpus intact
+        featureOffsets.resetQuick();
+        featureNames.resetQuick();
+        featureKinds.resetQuick();
+        featureValues.resetQuick();
+        wideValues.resetQuick();
+
+        for(SymbolSpan s : spans) {
+            if(s.features != null) {
+                for(Map.Entry<Object, Object> e : s.features.entrySet()) {
+                    if(!(e.getKey() instanceof String))
+                        throw new IllegalArgumentException(String.format("Document %s: feature name %s of %s span isn't a string",
+                                id, e.getKey(), s.type));
+
+                    addValue(id, s, (String) e.getKey(), e.getValue());
+                    featureNames.add(string((String) e.getKey()));
+                }
+            }
+
+            featureOffsets.add(featureNames.size());
+        }
+
+        docOffsets.add(counter.getCount());
+
+        out.writeInt(string(id));
+        out.writeInt(text.length());
+
+        for(int i = 0; i < text.length(); i++) {
+            out.writeChar(text.charAt(i));
+        }
+
+        out.writeInt(spans.size());
+
+        for(SymbolSpan s : spans) {
+            out.writeInt(string(s.type));
+        }
+
+        for(SymbolSpan s : spans) {
+            out.writeInt(s.start);
+        }
+
+        for(SymbolSpan s : spans) {
+            out.writeInt(s.end);
+        }
+
+        out.writeInt(0);
+
+        for(int i = 0; i < featureOffsets.size(); i++) {
+            out.writeInt(featureOffsets.get(i));
+        }
+
+        for(int i = 0; i < featureNames.size(); i++) {
+            out.writeInt(featureNames.get(i));
+        }
+
+        for(int i = 0; i < featureKinds.size(); i++) {
+            out.writeByte(featureKinds.get(i));
+        }
+
+        for(int i = 0; i < featureValues.size(); i++) {
+            out.writeInt(featureValues.get(i));
+        }
+
+        out.writeInt(wideValues.size());
+
+        for(int i = 0; i < wideValues.size(); i++) {
+            out.writeLong(wideValues.get(i));
+        }
+    }
+
+    /**
+     * Add feature value kind and value. Only values that are read back with the same type are accepted
+     */
+    void addValue(String id, SymbolSpan s, String name, Object value) {
+        if(value == null) {
+            featureKinds.add(CorpusFormat.NULL);
+            featureValues.add(0);
+        } else if(value instanceof String) {
+            featureKinds.add(CorpusFormat.STRING);
+            featureValues.add(string((String) value));
+        } else if(value instanceof Integer) {
+            featureKinds.add(CorpusFormat.INTEGER);
+            featureValues.add((Integer) value);
+        } else if(value instanceof Boolean) {
+            featureKinds.add(CorpusFormat.BOOLEAN);
+            featureValues.add((Boolean) value? 1 : 0);
+        } else if(value instanceof Long) {
+            featureKinds.add(CorpusFormat.LONG);
+            featureValues.add(wideValues.size());
+            wideValues.add((Long) value);
+        } else if(value instanceof Double) {
+            featureKinds.add(CorpusFormat.DOUBLE);
+            featureValues.add(wideValues.size());
+            wideValues.add(Double.doubleToRawLongBits((Double) value));
+        } else {
+            throw new IllegalArgumentException(String.format("Document %s: feature %s of %s span has unsupported value type %s",
+                    id, name, s.type, value.getClass().getName()));
+        }
+    }
+
+    public int size() {
+        return docOffsets.size();
+    }
+
+    @Override
+    public void close() throws IOException {
+        long dictOffset = counter.getCount();
+        out.writeInt(dict.size());
+
+        for(String s : dict) {
+            out.writeInt(s.length());
+            out.writeChars(s);
+        }
+
+        long indexOffset = counter.getCount();
+
+        for(int i = 0; i < docOffsets.size(); i++) {
+            out.writeLong(docOffsets.get(i));
+        }
+
+        out.close();
+
+        try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(8);
+            raf.writeInt(docOffsets.size());
+            raf.writeLong(dictOffset);
+            raf.writeLong(indexOffset);
+        }
+    }
+}
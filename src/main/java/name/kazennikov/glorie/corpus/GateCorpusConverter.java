@@ -0,0 +1,133 @@
+package name.kazennikov.glorie.corpus;
+
+import gate.Annotation;
+import gate.AnnotationSet;
+import gate.Document;
+import gate.Factory;
+import gate.Gate;
+import name.kazennikov.glorie.SymbolSpan;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Converter of GATE documents to the binary corpus.
+ *
+ * Annotations of the annotation set are stored as spans with their features. Document ids are the file names.
+ *
+ * <pre>
+ * GateCorpusConverter [--as name] [--types Type1,Type2] corpus file|dir...
+ * </pre>
+ */
+public class GateCorpusConverter {
+    private static final Logger logger = Logger.getLogger(GateCorpusConverter.class);
+
+    final CorpusWriter writer;
+    final String asName;
+    final Set<String> types;    // null - all types
+
+    public GateCorpusConverter(CorpusWriter writer, String asName, Set<String> types) {
+        this.writer = writer;
+        this.asName = asName;
+        this.types = types;
+    }
+
+    /**
+     * Add document to the corpus
+     * @param id document id
+     * @param doc source document
+     */
+    public void add(String id, Document doc) throws Exception {
+        AnnotationSet as = doc.getAnnotations(asName);
+        List<SymbolSpan> spans = new ArrayList<>(as.size());
+
+        for(Annotation a : as) {
+            if(types != null && !types.contains(a.getType()))
+                continue;
+
+            spans.add(new SymbolSpan(-1, a.getType(), -1,
+                    a.getStartNode().getOffset().intValue(),
+                    a.getEndNode().getOffset().intValue(),
+                    a.getFeatures(), null, 1.0));
+        }
+
+        writer.add(id, doc.getContent().toString(), spans);
+    }
+
+    /**
+     * Load and add document file
+     */
+    public void add(File f) throws Exception {
+        Document doc = Factory.newDocument(f.toURI().toURL(), "UTF-8");
+
+        try {
+            add(f.getName(), doc);
+        } finally {
+            Factory.deleteResource(doc);
+        }
+    }
+
+    /**
+     * Add document file, or all files of a directory recursively, in name order
+     */
+    public void addAll(File f) throws Exception {
+        if(!f.isDirectory()) {
+            add(f);
+            return;
+        }
+
+        File[] files = f.listFiles();
+
+        if(files == null)
+            return;
+
+        Arrays.sort(files);
+
+        for(File file : files) {
+            if(!file.isHidden()) {
+                addAll(file);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String asName = null;
+        Set<String> types = null;
+        int i = 0;
+
+        for(; i + 1 < args.length && args[i].startsWith("--"); i += 2) {
+            switch(args[i]) {
+                case "--as":
+                    asName = args[i + 1];
+                    break;
+                case "--types":
+                    types = new HashSet<>(Arrays.asList(args[i + 1].split(",")));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+
+        if(args.length - i < 2) {
+            System.err.println("Usage: GateCorpusConverter [--as name] [--types Type1,Type2] corpus file|dir...");
+            return;
+        }
+
+        Gate.init();
+
+        try(CorpusWriter writer = new CorpusWriter(new File(args[i]))) {
+            GateCorpusConverter converter = new GateCorpusConverter(writer, asName, types);
+
+            for(int j = i + 1; j < args.length; j++) {
+                converter.addAll(new File(args[j]));
+            }
+
+            logger.info(String.format("Converted %d documents to %s", writer.size(), args[i]));
+        }
+    }
+}
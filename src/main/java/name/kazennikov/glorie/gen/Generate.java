@@ -0,0 +1,111 @@
+package name.kazennikov.glorie.gen;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line interface of the generators.
+ *
+ * <pre>
+ * Generate grammar [--seed N] [--rules N] [--rhs N] [--ambiguity N] [--kinds N] [--terminals P] [--greedy P]
+ *                  [--mix plain,equal,equal_ci,regex,in,greater,not] [--out file]
+ * Generate lattice [--seed N] [--docs N] [--words N] [--ambiguity N] [--span N] [--kinds N] [--out file]
+ * </pre>
+ * The output is written to stdout, if the file isn't set. Lattices are written in {@link LatticeFormat},
+ * the seed of i-th document is seed + i.
+ */
+public class Generate {
+
+    public static void main(String[] args) throws Exception {
+        if(args.length == 0 || args.length % 2 == 0) {
+            usage();
+            return;
+        }
+
+        Map<String, String> opts = new HashMap<>();
+
+        for(int i = 1; i < args.length; i += 2) {
+            if(!args[i].startsWith("--")) {
+                usage();
+                return;
+            }
+
+            opts.put(args[i].substring(2), args[i + 1]);
+        }
+
+        PrintWriter pw = opts.containsKey("out")? new PrintWriter(new File(opts.get("out")), "UTF-8") : new PrintWriter(System.out);
+
+        try {
+            switch(args[0]) {
+                case "grammar":
+                    pw.print(grammar(opts).generate());
+                    break;
+                case "lattice":
+                    lattices(opts, pw);
+                    break;
+                default:
+                    usage();
+            }
+        } finally {
+            pw.flush();
+
+            if(opts.containsKey("out")) {
+                pw.close();
+            }
+        }
+    }
+
+    static GrammarGenerator grammar(Map<String, String> opts) {
+        GrammarGenerator g = new GrammarGenerator(Long.parseLong(get(opts, "seed", "0")));
+        g.setRules(Integer.parseInt(get(opts, "rules", String.valueOf(g.getRules()))));
+        g.setMaxRhsLength(Integer.parseInt(get(opts, "rhs", String.valueOf(g.getMaxRhsLength()))));
+        g.setAmbiguity(Integer.parseInt(get(opts, "ambiguity", String.valueOf(g.getAmbiguity()))));
+        g.setKinds(Integer.parseInt(get(opts, "kinds", String.valueOf(g.getKinds()))));
+        g.setTerminalRatio(Double.parseDouble(get(opts, "terminals", String.valueOf(g.getTerminalRatio()))));
+        g.setGreedyRatio(Double.parseDouble(get(opts, "greedy", String.valueOf(g.getGreedyRatio()))));
+
+        if(opts.containsKey("mix")) {
+            String[] weights = opts.get("mix").split(",");
+            GrammarGenerator.Family[] families = GrammarGenerator.Family.values();
+
+            if(weights.length != families.length)
+                throw new IllegalArgumentException("Expected " + families.length + " predicate weights");
+
+            for(int i = 0; i < families.length; i++) {
+                g.setWeight(families[i], Double.parseDouble(weights[i]));
+            }
+        }
+
+        return g;
+    }
+
+    static void lattices(Map<String, String> opts, PrintWriter pw) {
+        long seed = Long.parseLong(get(opts, "seed", "0"));
+        int docs = Integer.parseInt(get(opts, "docs", "1"));
+
+        LatticeGenerator g = new LatticeGenerator();
+        g.setWords(Integer.parseInt(get(opts, "words", String.valueOf(g.getWords()))));
+        g.setAmbiguity(Integer.parseInt(get(opts, "ambiguity", String.valueOf(g.getAmbiguity()))));
+        g.setMaxSpanLength(Integer.parseInt(get(opts, "span", String.valueOf(g.getMaxSpanLength()))));
+        g.setKinds(Integer.parseInt(get(opts, "kinds", String.valueOf(g.getKinds()))));
+
+        for(int i = 0; i < docs; i++) {
+            g.setSeed(seed + i);
+            LatticeFormat.write(pw, g.generate("doc" + i));
+        }
+    }
+
+    static String get(Map<String, String> opts, String key, String defaultValue) {
+        String value = opts.get(key);
+        return value != null? value : defaultValue;
+    }
+
+    static void usage() {
+        System.err.println("Usage:");
+        System.err.println("  Generate grammar [--seed N] [--rules N] [--rhs N] [--ambiguity N] [--kinds N] [--terminals P] [--greedy P]");
+        System.err.println("                   [--mix plain,equal,equal_ci,regex,in,greater,not] [--out file]");
+        System.err.println("  Generate lattice [--seed N] [--docs N] [--words N] [--ambiguity N] [--span N] [--kinds N] [--out file]");
+    }
+}
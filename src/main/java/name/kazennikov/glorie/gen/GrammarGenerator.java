@@ -0,0 +1,249 @@
+package name.kazennikov.glorie.gen;
+
+import java.util.Random;
+
+/**
+ * Generator of synthetic GLORIE grammars for scalability tests.
+ *
+ * The grammar is layered: non-terminal N[i] refers only to non-terminals N[j], j > i, so the grammar
+ * has no cycles. The start symbol has a production for every non-terminal, so all generated productions
+ * are reachable. Terminals are spans of a single input type with 'kind' (k0..k[kinds - 1]) and
+ * 'length' features, as produced by {@link LatticeGenerator}.
+ *
+ * Parameters:
+ * <ul>
+ *     <li>rules - number of productions, without start productions;</li>
+ *     <li>maxRhsLength - max RHS length, the length is uniform in [1, maxRhsLength];</li>
+ *     <li>ambiguity - number of productions per non-terminal. Alternatives of a non-terminal
+ *     match overlapping inputs, so the number of parses grows with it;</li>
+ *     <li>terminalRatio - probability of a terminal RHS element;</li>
+ *     <li>predicate mix - relative weights of predicate families of terminals;</li>
+ *     <li>greedyRatio - probability of a greedy production.</li>
+ * </ul>
+ *
+ * The output depends only on the parameters and the seed.
+ */
+public class GrammarGenerator {
+
+    /**
+     * Predicate families of generated terminals
+     */
+    public enum Family {
+        PLAIN,          // [Token]
+        EQUAL,          // [Token: kind == k1]
+        EQUAL_CI,       // [Token: kind ==* K1]
+        REGEX,          // [Token: kind =~ "k[1-3]"]
+        IN,             // [Token: kind in "k1|k2"]
+        GREATER,        // [Token: length > 1]
+        NOT             // [Token: !kind == k1]
+    }
+
+    long seed = 0;
+    String name = "Synthetic";
+    String type = "Token";
+    int kinds = 16;
+    int rules = 1000;
+    int maxRhsLength = 3;
+    int ambiguity = 2;
+    double terminalRatio = 0.7;
+    double greedyRatio = 0.0;
+    boolean actions = true;     // add attribute actions, so reduce actions are compiled
+    final double[] mix = {0.1, 0.5, 0.05, 0.1, 0.1, 0.1, 0.05};
+
+    public GrammarGenerator() {
+    }
+
+    public GrammarGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public int getKinds() {
+        return kinds;
+    }
+
+    public void setKinds(int kinds) {
+        this.kinds = kinds;
+    }
+
+    public int getRules() {
+        return rules;
+    }
+
+    public void setRules(int rules) {
+        this.rules = rules;
+    }
+
+    public int getMaxRhsLength() {
+        return maxRhsLength;
+    }
+
+    public void setMaxRhsLength(int maxRhsLength) {
+        this.maxRhsLength = maxRhsLength;
+    }
+
+    public int getAmbiguity() {
+        return ambiguity;
+    }
+
+    public void setAmbiguity(int ambiguity) {
+        this.ambiguity = ambiguity;
+    }
+
+    public double getTerminalRatio() {
+        return terminalRatio;
+    }
+
+    public void setTerminalRatio(double terminalRatio) {
+        this.terminalRatio = terminalRatio;
+    }
+
+    public double getGreedyRatio() {
+        return greedyRatio;
+    }
+
+    public void setGreedyRatio(double greedyRatio) {
+        this.greedyRatio = greedyRatio;
+    }
+
+    public boolean isActions() {
+        return actions;
+    }
+
+    public void setActions(boolean actions) {
+        this.actions = actions;
+    }
+
+    /**
+     * Set relative weight of a predicate family
+     */
+    public void setWeight(Family family, double weight) {
+        mix[family.ordinal()] = weight;
+    }
+
+    public double getWeight(Family family) {
+        return mix[family.ordinal()];
+    }
+
+    /**
+     * Generate grammar source
+     */
+    public String generate() {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder();
+        int nts = Math.max(1, rules / Math.max(1, ambiguity));
+
+        sb.append("Grammar: ").append(name).append('\n');
+        sb.append("Input: ").append(type).append('\n');
+        sb.append("Start: S\n\n");
+
+        for(int i = 0; i < nts; i++) {
+            sb.append("S -> N").append(i).append('\n');
+        }
+
+        sb.append('\n');
+
+        for(int r = 0; r < rules; r++) {
+            int nt = r % nts;
+            int length = 1 + rnd.nextInt(Math.max(1, maxRhsLength));
+
+            if(rnd.nextDouble() < greedyRatio) {
+                sb.append('!');
+            }
+
+            sb.append('N').append(nt).append(" ->");
+
+            for(int i = 0; i < length; i++) {
+                sb.append(' ');
+
+                // only the last layers have no non-terminals to refer to
+                if(nt + 1 < nts && rnd.nextDouble() >= terminalRatio) {
+                    int next = nt + 1 + rnd.nextInt(Math.min(nts - nt - 1, 16));
+                    sb.append('N').append(next);
+                } else {
+                    terminal(sb, rnd);
+                }
+            }
+
+            if(actions) {
+                sb.append(" { rule = \"R").append(r).append("\" }");
+            }
+
+            sb.append('\n');
+        }
+
+        return sb.toString();
+    }
+
+    Family family(Random rnd) {
+        double total = 0;
+
+        for(double w : mix) {
+            total += w;
+        }
+
+        double x = rnd.nextDouble() * total;
+
+        for(Family f : Family.values()) {
+            x -= mix[f.ordinal()];
+
+            if(x < 0)
+                return f;
+        }
+
+        return Family.PLAIN;
+    }
+
+    void terminal(StringBuilder sb, Random rnd) {
+        int k = rnd.nextInt(kinds);
+
+        switch(family(rnd)) {
+            case PLAIN:
+                sb.append('[').append(type).append(']');
+                break;
+            case EQUAL:
+                sb.append('[').append(type).append(": kind == k").append(k).append(']');
+                break;
+            case EQUAL_CI:
+                sb.append('[').append(type).append(": kind ==* K").append(k).append(']');
+                break;
+            case REGEX:
+                // kinds with the same last digit
+                sb.append('[').append(type).append(": kind =~ \"k[0-9]*").append(k % 10).append("$\"]");
+                break;
+            case IN:
+                sb.append('[').append(type).append(": kind in \"k").append(k)
+                        .append("|k").append((k + 1) % kinds).append("\"]");
+                break;
+            case GREATER:
+                sb.append('[').append(type).append(": length > ").append(rnd.nextInt(2)).append(']');
+                break;
+            case NOT:
+                sb.append('[').append(type).append(": !kind == k").append(k).append(']');
+                break;
+        }
+    }
+}
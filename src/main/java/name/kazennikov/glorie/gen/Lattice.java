@@ -0,0 +1,65 @@
+package name.kazennikov.glorie.gen;
+
+import name.kazennikov.glorie.CompiledGrammar;
+import name.kazennikov.glorie.SpanSource;
+import name.kazennikov.glorie.SymbolSpan;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Input lattice of a document: text and input spans.
+ *
+ * Spans are kept unresolved (symbol = -1), as the lattice doesn't depend on a grammar.
+ * Use {@link #spans(CompiledGrammar)} to get parser input of a grammar.
+ */
+public class Lattice implements SpanSource {
+    final String id;
+    final CharSequence text;
+    final List<SymbolSpan> spans;
+
+    public Lattice(String id, CharSequence text, List<SymbolSpan> spans) {
+        this.id = id;
+        this.text = text;
+        this.spans = spans;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public CharSequence getText() {
+        return text;
+    }
+
+    /**
+     * Unresolved spans of the lattice
+     */
+    public List<SymbolSpan> getSpans() {
+        return spans;
+    }
+
+    public int size() {
+        return spans.size();
+    }
+
+    /**
+     * Get sorted parser input: spans of the grammar input types with resolved terminal symbols
+     * @param grammar target grammar
+     */
+    @Override
+    public List<SymbolSpan> spans(CompiledGrammar grammar) {
+        List<SymbolSpan> l = new ArrayList<>(spans.size());
+
+        for(SymbolSpan s : spans) {
+            if(!grammar.hasInput(s.type))
+                continue;
+
+            l.add(new SymbolSpan(grammar.terminal(s.type), s.type, -1, s.start, s.end, s.features, s.data, s.weight));
+        }
+
+        Collections.sort(l, SymbolSpan.COMPARATOR);
+        return l;
+    }
+}
@@ -0,0 +1,212 @@
+package name.kazennikov.glorie.gen;
+
+import gate.FeatureMap;
+import gate.util.SimpleFeatureMapImpl;
+import name.kazennikov.glorie.SymbolSpan;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Text format of lattices, a frame per document:
+ * <pre>
+ * #doc    id
+ * #text   text
+ * type    start   end     [name=value]...
+ * ...
+ * </pre>
+ * Fields are separated by tabs. Tabs, line breaks, backslashes and '=' in the fields are escaped
+ * by backslash. Span types must not start with '#'. Integer feature values are read back as integers,
+ * other values as strings.
+ */
+public class LatticeFormat {
+    public static final String DOC = "#doc";
+    public static final String TEXT = "#text";
+
+    /**
+     * Write lattice frame
+     */
+    public static void write(PrintWriter pw, Lattice lattice) {
+        pw.print(DOC);
+        pw.print('\t');
+        pw.println(escape(lattice.getId()));
+        pw.print(TEXT);
+        pw.print('\t');
+        pw.println(escape(lattice.getText().toString()));
+
+        for(SymbolSpan s : lattice.getSpans()) {
+            pw.print(escape(s.type));
+            pw.print('\t');
+            pw.print(s.start);
+            pw.print('\t');
+            pw.print(s.end);
+
+            if(s.features != null) {
+                for(Map.Entry<Object, Object> e : s.features.entrySet()) {
+                    pw.print('\t');
+                    pw.print(escape(String.valueOf(e.getKey())));
+                    pw.print('=');
+                    pw.print(escape(String.valueOf(e.getValue())));
+                }
+            }
+
+            pw.println();
+        }
+    }
+
+    /**
+     * Read next lattice frame
+     * @return lattice, or null at the end of the input
+     */
+    public static Lattice read(BufferedReader r) throws IOException {
+        String line = r.readLine();
+
+        while(line != null && line.isEmpty()) {
+            line = r.readLine();
+        }
+
+        if(line == null)
+            return null;
+
+        if(!line.startsWith(DOC + "\t"))
+            throw new IOException("Expected " + DOC + " line, got: " + line);
+
+        String id = unescape(line.substring(DOC.length() + 1));
+        line = r.readLine();
+
+        if(line == null || !line.startsWith(TEXT + "\t"))
+            throw new IOException("Expected " + TEXT + " line of document " + id);
+
+        String text = unescape(line.substring(TEXT.length() + 1));
+        List<SymbolSpan> spans = new ArrayList<>();
+
+        // spans until the next frame or the end of the input
+        r.mark(1);
+
+        while(r.read() != '#') {
+            r.reset();
+            line = r.readLine();
+
+            if(line == null)
+                break;
+
+            if(!line.isEmpty()) {
+                spans.add(parseSpan(line));
+            }
+
+            r.mark(1);
+        }
+
+        r.reset();
+        return new Lattice(id, text, spans);
+    }
+
+    static SymbolSpan parseSpan(String line) throws IOException {
+        String[] parts = line.split("\t");
+
+        if(parts.length < 3)
+            throw new IOException("Invalid span line: " + line);
+
+        FeatureMap features = new SimpleFeatureMapImpl();
+
+        for(int i = 3; i < parts.length; i++) {
+            int eq = parts[i].indexOf('=');
+
+            if(eq < 0)
+                throw new IOException("Invalid feature: " + parts[i]);
+
+            features.put(unescape(parts[i].substring(0, eq)), value(unescape(parts[i].substring(eq + 1))));
+        }
+
+        try {
+            return new SymbolSpan(-1, unescape(parts[0]), -1, Integer.parseInt(parts[1]), Integer.parseInt(parts[2]), features, null, 1.0);
+        } catch(NumberFormatException e) {
+            throw new IOException("Invalid span offsets: " + line, e);
+        }
+    }
+
+    static Object value(String s) {
+        if(s.isEmpty() || s.length() > 9)
+            return s;
+
+        for(int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+
+            if(!(Character.isDigit(ch) || (i == 0 && ch == '-' && s.length() > 1)))
+                return s;
+        }
+
+        return Integer.valueOf(s);
+    }
+
+    public static String escape(String s) {
+        StringBuilder sb = new StringBuilder(s.length());
+
+        for(int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+
+            switch(ch) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '=':
+                    sb.append("\\e");
+                    break;
+                default:
+                    sb.append(ch);
+            }
+        }
+
+        return sb.toString();
+    }
+
+    public static String unescape(String s) {
+        if(s.indexOf('\\') < 0)
+            return s;
+
+        StringBuilder sb = new StringBuilder(s.length());
+
+        for(int i = 0; i < s.length(); i++) {
+            char ch = s.charAt(i);
+
+            if(ch != '\\' || i + 1 == s.length()) {
+                sb.append(ch);
+                continue;
+            }
+
+            ch = s.charAt(++i);
+
+            switch(ch) {
+                case 't':
+                    sb.append('\t');
+                    break;
+                case 'n':
+                    sb.append('\n');
+                    break;
+                case 'r':
+                    sb.append('\r');
+                    break;
+                case 'e':
+                    sb.append('=');
+                    break;
+                default:
+                    sb.append(ch);
+            }
+        }
+
+        return sb.toString();
+    }
+}
@@ -0,0 +1,121 @@
+package name.kazennikov.glorie.gen;
+
+import gate.FeatureMap;
+import gate.util.SimpleFeatureMapImpl;
+import name.kazennikov.glorie.SymbolSpan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generator of synthetic input lattices for the grammars of {@link GrammarGenerator}.
+ *
+ * The text is a sequence of random words. Each word starts 'ambiguity' spans: a span of the word itself
+ * and spans that cover up to maxSpanLength words, so spans of a lattice overlap. A span has
+ * 'kind' (k0..k[kinds - 1]) and 'length' (number of covered words) features.
+ *
+ * The output depends only on the parameters and the seed.
+ */
+public class LatticeGenerator {
+    long seed = 0;
+    String type = "Token";
+    int kinds = 16;
+    int words = 1000;
+    int ambiguity = 2;
+    int maxSpanLength = 3;
+
+    public LatticeGenerator() {
+    }
+
+    public LatticeGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public void setType(String type) {
+        this.type = type;
+    }
+
+    public int getKinds() {
+        return kinds;
+    }
+
+    public void setKinds(int kinds) {
+        this.kinds = kinds;
+    }
+
+    public int getWords() {
+        return words;
+    }
+
+    public void setWords(int words) {
+        this.words = words;
+    }
+
+    public int getAmbiguity() {
+        return ambiguity;
+    }
+
+    public void setAmbiguity(int ambiguity) {
+        this.ambiguity = ambiguity;
+    }
+
+    public int getMaxSpanLength() {
+        return maxSpanLength;
+    }
+
+    public void setMaxSpanLength(int maxSpanLength) {
+        this.maxSpanLength = maxSpanLength;
+    }
+
+    /**
+     * Generate lattice
+     * @param id document id
+     */
+    public Lattice generate(String id) {
+        Random rnd = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        int[] starts = new int[words];
+        int[] ends = new int[words];
+
+        for(int i = 0; i < words; i++) {
+            starts[i] = text.length();
+            int length = 1 + rnd.nextInt(5);
+
+            for(int j = 0; j < length; j++) {
+                text.append((char) ('a' + rnd.nextInt(26)));
+            }
+
+            ends[i] = text.length();
+            text.append(' ');
+        }
+
+        List<SymbolSpan> spans = new ArrayList<>(words * Math.max(1, ambiguity));
+
+        for(int i = 0; i < words; i++) {
+            for(int j = 0; j < ambiguity; j++) {
+                int length = j == 0? 1 : 1 + rnd.nextInt(Math.min(Math.max(1, maxSpanLength), words - i));
+
+                FeatureMap features = new SimpleFeatureMapImpl();
+                features.put("kind", "k" + rnd.nextInt(kinds));
+                features.put("length", length);
+
+                spans.add(new SymbolSpan(-1, type, -1, starts[i], ends[i + length - 1], features, null, 1.0));
+            }
+        }
+
+        return new Lattice(id, text.toString(), spans);
+    }
+}